@@ -42,13 +42,16 @@ dependencies {
     compile(kotlinStdlib())
     compile(project(":compiler:frontend"))
     compile(project(":compiler:cli"))
+    compile(project(":kotlin-build-common"))
     compile(intellijCoreDep()) { includeJars("intellij-core") }
     compile(jpsStandalone()) { includeJars("jps-model") }
     Platform[192].orHigher {
         compile(intellijPluginDep("java"))
     }
     compile(intellijDep()) { includeIntellijCoreJarDependencies(project) }
+    compile(intellijDep()) { includeJars("util") }
     compile("org.jetbrains.kotlinx:kotlinx.benchmark.runtime-jvm:$benchmarks_version")
+    runtime(project(":kotlin-reflect"))
 }
 
 sourceSets {
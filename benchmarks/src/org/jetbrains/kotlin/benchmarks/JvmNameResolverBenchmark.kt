@@ -0,0 +1,84 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks
+
+import org.jetbrains.kotlin.metadata.jvm.deserialization.JvmProtoBufUtil
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.io.File
+import java.util.concurrent.TimeUnit
+import java.util.zip.ZipFile
+
+/**
+ * Measures reading the metadata of all Kotlin classes of kotlin-stdlib and kotlin-reflect (when it's on the classpath)
+ * and requesting every string of their string tables twice, as the deserializer requests the same names repeatedly.
+ * Run with `-prof gc` to compare the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+open class JvmNameResolverBenchmark {
+    private class ClassMetadata(val kind: Int, val data: Array<String>, val strings: Array<String>)
+
+    private lateinit var metadata: List<ClassMetadata>
+
+    @Setup
+    fun setUp() {
+        val classLoader = javaClass.classLoader
+        val jars = listOf("kotlin.Unit", "kotlin.reflect.jvm.ReflectJvmMapping").mapNotNull { className ->
+            val klass = try {
+                Class.forName(className, false, classLoader)
+            } catch (e: ClassNotFoundException) {
+                return@mapNotNull null
+            }
+            File(klass.protectionDomain.codeSource.location.toURI())
+        }
+
+        metadata = jars.filter { it.isFile }.flatMap { jar ->
+            ZipFile(jar).use { zip ->
+                zip.entries().asSequence()
+                    .filter { it.name.endsWith(".class") && !it.name.startsWith("META-INF/") }
+                    .mapNotNull { entry -> loadMetadata(entry.name.removeSuffix(".class").replace('/', '.'), classLoader) }
+                    .toList()
+            }
+        }
+    }
+
+    private fun loadMetadata(className: String, classLoader: ClassLoader): ClassMetadata? {
+        val annotation = try {
+            Class.forName(className, false, classLoader).getAnnotation(Metadata::class.java)
+        } catch (e: LinkageError) {
+            null
+        } ?: return null
+
+        return when (annotation.kind) {
+            KIND_CLASS, KIND_FILE_FACADE, KIND_MULTIFILE_CLASS_PART -> ClassMetadata(annotation.kind, annotation.data1, annotation.data2)
+            else -> null
+        }
+    }
+
+    @Benchmark
+    fun readStrings(bh: Blackhole) {
+        for (classMetadata in metadata) {
+            val nameResolver =
+                if (classMetadata.kind == KIND_CLASS) JvmProtoBufUtil.readClassDataFrom(classMetadata.data, classMetadata.strings).first
+                else JvmProtoBufUtil.readPackageDataFrom(classMetadata.data, classMetadata.strings).first
+
+            val count = nameResolver.types.recordList.sumBy { maxOf(it.range, 0) }
+            repeat(2) {
+                for (index in 0 until count) {
+                    bh.consume(nameResolver.getString(index))
+                }
+            }
+        }
+    }
+
+    private companion object {
+        const val KIND_CLASS = 1
+        const val KIND_FILE_FACADE = 2
+        const val KIND_MULTIFILE_CLASS_PART = 5
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks
+
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures obtaining KClass instances from kotlin-reflect with class literals and `obj::class` expressions,
+ * which look up the KClass cache on every evaluation, from as many threads as there are processors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Threads(Threads.MAX)
+open class KClassCacheBenchmark {
+    private val objects: List<Any> = listOf("", 1, 1L, listOf(1), mapOf(1 to 2), Any(), this, arrayOf(1), intArrayOf(1))
+
+    @Benchmark
+    fun classLiterals(bh: Blackhole) {
+        bh.consume(String::class)
+        bh.consume(Int::class)
+        bh.consume(List::class)
+        bh.consume(KClassCacheBenchmark::class)
+        bh.consume(Blackhole::class)
+    }
+
+    @Benchmark
+    fun objectClasses(bh: Blackhole) {
+        for (obj in objects) {
+            bh.consume(obj::class)
+        }
+    }
+}
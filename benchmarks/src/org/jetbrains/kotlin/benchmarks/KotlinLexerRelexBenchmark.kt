@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks
+
+import org.jetbrains.kotlin.lexer.KotlinLexer
+import org.jetbrains.kotlin.lexer.KotlinTokenBuffer
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares lexing a file of [lines] lines from scratch with updating [KotlinTokenBuffer] after a one-character edit in the middle
+ * of the file. Every invocation switches the text between the original and the edited version.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+open class KotlinLexerRelexBenchmark {
+    @Param("10000")
+    private var lines: Int = 0
+
+    private lateinit var texts: Array<String>
+    private var editOffset = 0
+    private var current = 0
+
+    private val lexer = KotlinLexer()
+    private lateinit var buffer: KotlinTokenBuffer
+
+    @Setup
+    fun setUp() {
+        val original = buildString {
+            var line = 0
+            while (line < lines) {
+                append("class C$line(val x: Int) {\n")
+                append("    fun foo(y: Int): String = \"\${x + y} and \$x\" // comment\n")
+                append("    /* block */ val z = listOf(1, 2, 3).map { it * 2.5e1 }\n")
+                append("}\n")
+                line += 4
+            }
+        }
+        editOffset = original.indexOf("foo", original.length / 2)
+        texts = arrayOf(original, original.replaceRange(editOffset, editOffset + 1, "b"))
+        current = 0
+        buffer = KotlinTokenBuffer(original)
+    }
+
+    @Benchmark
+    fun fullRelex(bh: Blackhole) {
+        current = 1 - current
+        lexer.start(texts[current])
+        while (lexer.tokenType != null) {
+            bh.consume(lexer.tokenType)
+            lexer.advance()
+        }
+    }
+
+    @Benchmark
+    fun incrementalRelex(bh: Blackhole) {
+        current = 1 - current
+        bh.consume(buffer.update(texts[current], editOffset, editOffset + 1))
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.containers.MultiMap
+import org.jetbrains.kotlin.incremental.LookupStorage
+import org.jetbrains.kotlin.incremental.LookupSymbol
+import org.jetbrains.kotlin.incremental.storage.*
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.io.File
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the time of updating the lookup storage after a full build of [size] files, followed by an incremental build
+ * which recompiles every tenth file. [legacyTreeSetMerge] reproduces the previous implementation of [LookupStorage.addAll],
+ * which merged every key into a boxed set and wrote it back immediately. It doesn't maintain the file id maps,
+ * so the comparison is in its favour.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+open class LookupStorageBenchmark {
+    @Param("100", "1000", "10000")
+    private var size: Int = 0
+
+    private lateinit var workingDir: File
+    private lateinit var paths: Set<String>
+    private lateinit var fullBuildLookups: MultiMap<LookupSymbol, String>
+    private lateinit var incrementalBuildLookups: MultiMap<LookupSymbol, String>
+
+    @Setup
+    fun setUp() {
+        workingDir = FileUtil.createTempDirectory("lookupStorageBenchmark", null)
+
+        val random = Random(42)
+        val symbols = (0 until size * SYMBOLS_PER_FILE).map { LookupSymbol("name$it", "scope${it % (size + 1)}") }
+        paths = (0 until size).mapTo(LinkedHashSet()) { "/src/file$it.kt" }
+        fullBuildLookups = MultiMap.createSet()
+        incrementalBuildLookups = MultiMap.createSet()
+
+        for ((i, path) in paths.withIndex()) {
+            repeat(LOOKUPS_PER_FILE) {
+                val symbol = symbols[random.nextInt(symbols.size)]
+                fullBuildLookups.putValue(symbol, path)
+                if (i % 10 == 0) {
+                    incrementalBuildLookups.putValue(symbol, path)
+                }
+            }
+        }
+    }
+
+    @TearDown
+    fun tearDown() {
+        FileUtil.delete(workingDir)
+    }
+
+    @Benchmark
+    fun lookupStorage(bh: Blackhole) {
+        val storage = LookupStorage(newStorageDir(), FileToCanonicalPathConverter)
+        try {
+            storage.addAll(fullBuildLookups, paths)
+            storage.flush(memoryCachesOnly = false)
+            storage.addAll(incrementalBuildLookups, paths)
+            storage.flush(memoryCachesOnly = false)
+            bh.consume(storage)
+        } finally {
+            storage.close()
+        }
+    }
+
+    @Benchmark
+    fun legacyTreeSetMerge(bh: Blackhole) {
+        val map = TreeSetLookupMap(File(newStorageDir(), "lookups.tab"))
+        try {
+            val pathToId = paths.withIndex().associate { it.value to it.index }
+            map.addAll(fullBuildLookups, pathToId)
+            map.flush(memoryCachesOnly = false)
+            map.addAll(incrementalBuildLookups, pathToId)
+            map.flush(memoryCachesOnly = false)
+            bh.consume(map)
+        } finally {
+            map.close()
+        }
+    }
+
+    private fun newStorageDir(): File =
+        File(workingDir, "storage").also { FileUtil.delete(it) }
+
+    private class TreeSetLookupMap(file: File) :
+        BasicMap<LookupSymbolKey, Collection<Int>>(file, LookupSymbolKeyDescriptor, IntCollectionExternalizer) {
+
+        fun addAll(lookups: MultiMap<LookupSymbol, String>, pathToId: Map<String, Int>) {
+            for (lookupSymbol in lookups.keySet().sorted()) {
+                val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
+                val fileIds = lookups[lookupSymbol].mapTo(TreeSet()) { pathToId.getValue(it) }
+                fileIds.addAll(storage[key] ?: emptySet())
+                storage[key] = fileIds
+            }
+        }
+
+        override fun dumpKey(key: LookupSymbolKey): String = key.toString()
+
+        override fun dumpValue(value: Collection<Int>): String = value.toString()
+    }
+
+    private companion object {
+        const val SYMBOLS_PER_FILE = 20
+        const val LOOKUPS_PER_FILE = 200
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks
+
+import org.jetbrains.kotlin.builtins.KotlinBuiltIns
+import org.jetbrains.kotlin.metadata.ProtoBuf
+import org.jetbrains.kotlin.metadata.ProtoBuf.QualifiedNameTable.QualifiedName
+import org.jetbrains.kotlin.metadata.builtins.BuiltInsBinaryVersion
+import org.jetbrains.kotlin.metadata.deserialization.NameResolverImpl
+import org.jetbrains.kotlin.serialization.deserialization.builtins.BuiltInSerializerProtocol
+import org.jetbrains.kotlin.serialization.deserialization.builtins.BuiltInsResourceLoader
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures resolving the names of classes referenced from the metadata of the built-ins, as it's done when their declarations
+ * are deserialized: once per class, supertype and type of a member. A new resolver is created for each package fragment.
+ * [legacy] reproduces the previous implementation of [NameResolverImpl], which walked the qualified name table on every request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+open class NameResolverBenchmark {
+    @Param("false", "true")
+    private var legacy: Boolean = false
+
+    private lateinit var fragments: List<ProtoBuf.PackageFragment>
+
+    @Setup
+    fun setUp() {
+        val resourceLoader = BuiltInsResourceLoader()
+        fragments = KotlinBuiltIns.BUILT_INS_PACKAGE_FQ_NAMES.mapNotNull { fqName ->
+            resourceLoader.loadResource(BuiltInSerializerProtocol.getBuiltInsFilePath(fqName))?.use { stream ->
+                BuiltInsBinaryVersion.readFrom(stream)
+                ProtoBuf.PackageFragment.parseFrom(stream, BuiltInSerializerProtocol.extensionRegistry)
+            }
+        }
+    }
+
+    @Benchmark
+    fun resolveClassNames(bh: Blackhole) {
+        for (fragment in fragments) {
+            val resolve: (Int) -> String =
+                if (legacy) LegacyNameResolver(fragment.strings, fragment.qualifiedNames)::getQualifiedClassName
+                else NameResolverImpl(fragment.strings, fragment.qualifiedNames)::getQualifiedClassName
+
+            for (klass in fragment.class_List) {
+                bh.consume(resolve(klass.fqName))
+                for (supertype in klass.supertypeList) {
+                    consumeType(supertype, resolve, bh)
+                }
+                for (function in klass.functionList) {
+                    consumeType(function.returnType, resolve, bh)
+                    for (parameter in function.valueParameterList) {
+                        consumeType(parameter.type, resolve, bh)
+                    }
+                }
+                for (property in klass.propertyList) {
+                    consumeType(property.returnType, resolve, bh)
+                }
+            }
+        }
+    }
+
+    private fun consumeType(type: ProtoBuf.Type, resolve: (Int) -> String, bh: Blackhole) {
+        if (type.hasClassName()) {
+            bh.consume(resolve(type.className))
+        }
+        for (argument in type.argumentList) {
+            if (argument.hasType()) {
+                consumeType(argument.type, resolve, bh)
+            }
+        }
+    }
+
+    private class LegacyNameResolver(private val strings: ProtoBuf.StringTable, private val qualifiedNames: ProtoBuf.QualifiedNameTable) {
+        fun getQualifiedClassName(index: Int): String {
+            val packageNameSegments = LinkedList<String>()
+            val relativeClassNameSegments = LinkedList<String>()
+            var current = index
+            while (current != -1) {
+                val proto = qualifiedNames.getQualifiedName(current)
+                val shortName = strings.getString(proto.shortName)
+                if (proto.kind == QualifiedName.Kind.PACKAGE) packageNameSegments.addFirst(shortName)
+                else relativeClassNameSegments.addFirst(shortName)
+                current = proto.parentQualifiedName
+            }
+            val className = relativeClassNameSegments.joinToString(".")
+            return if (packageNameSegments.isEmpty()) className else packageNameSegments.joinToString("/") + "/$className"
+        }
+    }
+}
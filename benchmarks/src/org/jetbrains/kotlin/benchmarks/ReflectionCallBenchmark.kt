@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks
+
+import org.openjdk.jmh.annotations.*
+import java.lang.reflect.Method
+import java.util.concurrent.TimeUnit
+import kotlin.reflect.KFunction
+import kotlin.reflect.KProperty1
+
+/**
+ * Measures calls of properties and functions through kotlin-reflect, compared with calling the same Java method
+ * through java.lang.reflect directly, which is the lower bound for the callers of kotlin-reflect.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+open class ReflectionCallBenchmark {
+    class Data(val name: String, var count: Int) {
+        fun describe(prefix: String, suffix: String = "!"): String = prefix + name + count + suffix
+    }
+
+    private val data = Data("data", 42)
+
+    private lateinit var nameProperty: KProperty1<Data, String>
+    private lateinit var describeFunction: KFunction<String>
+    private lateinit var getNameMethod: Method
+
+    @Setup
+    fun setUp() {
+        nameProperty = Data::name
+        describeFunction = Data::describe
+        getNameMethod = Data::class.java.getMethod("getName")
+    }
+
+    @Benchmark
+    fun javaMethodInvoke(): Any? = getNameMethod.invoke(data)
+
+    @Benchmark
+    fun propertyGetterCall(): String = nameProperty.getter.call(data)
+
+    @Benchmark
+    fun functionCall(): String = describeFunction.call(data, "prefix", "suffix")
+
+    @Benchmark
+    fun functionCallByWithDefaults(): String {
+        val parameters = describeFunction.parameters
+        return describeFunction.callBy(mapOf(parameters[0] to data, parameters[1] to "prefix"))
+    }
+}
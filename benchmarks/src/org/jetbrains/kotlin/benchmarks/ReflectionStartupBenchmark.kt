@@ -0,0 +1,47 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.benchmarks
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * [firstMembers] measures the time to the first `KClass.members` call in a fresh JVM, which includes loading kotlin-reflect
+ * and the built-ins. [membersInNewClassLoader] measures the same call for a class loaded by a new class loader each time,
+ * which requires a new module in kotlin-reflect, as it happens in applications with many class loaders.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+open class ReflectionStartupBenchmark {
+    class Data(val name: String, val count: Int) {
+        fun describe(): String = name + count
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Fork(20)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    fun firstMembers(): Int = Data::class.members.size
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    fun membersInNewClassLoader(): Int {
+        val className = Data::class.java.name
+        return IsolatingClassLoader(javaClass.classLoader, className).loadClass(className).kotlin.members.size
+    }
+
+    // Defines the class with the given name itself instead of delegating to the parent
+    private class IsolatingClassLoader(parent: ClassLoader, private val className: String) : ClassLoader(parent) {
+        override fun loadClass(name: String, resolve: Boolean): Class<*> {
+            if (name != className) return super.loadClass(name, resolve)
+
+            findLoadedClass(name)?.let { return it }
+            val bytes = parent.getResourceAsStream(name.replace('.', '/') + ".class").use { it.readBytes() }
+            return defineClass(name, bytes, 0, bytes.size)
+        }
+    }
+}
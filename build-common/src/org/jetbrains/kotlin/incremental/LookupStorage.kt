@@ -25,37 +25,92 @@ import org.jetbrains.kotlin.incremental.components.ScopeKind
 import org.jetbrains.kotlin.incremental.storage.*
 import org.jetbrains.kotlin.utils.Printer
 import org.jetbrains.kotlin.utils.keysToMap
-import java.io.File
-import java.io.IOException
+import java.io.*
+import java.nio.channels.Channels
 import java.util.*
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+import kotlin.system.measureTimeMillis
 
 
 open class LookupStorage(
     targetDataDir: File,
-    pathConverter: FileToPathConverter
+    pathConverter: FileToPathConverter,
+    private val reporter: ICReporter? = null,
+    private val minimumGarbageCollectibleSize: Int = MINIMUM_GARBAGE_COLLECTIBLE_SIZE,
+    private val garbageCollectedKeysPerFlush: Int = GARBAGE_COLLECTED_KEYS_PER_FLUSH
 ) : BasicMapsOwner(targetDataDir) {
     companion object {
         private val DELETED_TO_SIZE_TRESHOLD = 0.5
         private val MINIMUM_GARBAGE_COLLECTIBLE_SIZE = 10000
+        private val EMPTY_FILE_IDS = IntArray(0)
+        private const val GARBAGE_KEY_SIZE = 8
+
+        // Bounds the time spent on garbage collection at the end of a build
+        private val GARBAGE_COLLECTED_KEYS_PER_FLUSH =
+            System.getProperty("kotlin.incremental.lookups.gc.keys.per.flush")?.toIntOrNull() ?: 20000
     }
 
     private val countersFile = "counters".storageFile
+    // Lookup keys which existed when the current garbage collection has started, as pairs of ints
+    private val garbageKeysFile = "gc-keys".storageFile
     private val idToFile = registerMap(IdToFileMap("id-to-file".storageFile, pathConverter))
     private val fileToId = registerMap(FileToIdMap("file-to-id".storageFile, pathConverter))
     private val lookupMap = registerMap(LookupMap("lookups".storageFile))
 
+    // Lookups which are added since the last flush. They are merged into lookupMap in one batch sorted by key,
+    // so that every key is read and written at most once per flush
+    private val pendingLookups = HashMap<LookupSymbolKey, IntArray>()
+
+    // Queries only read the maps, so they don't block each other. Modifications, including flush, take the write lock
+    private val lock = ReentrantReadWriteLock()
+
     @Volatile
     private var size: Int = 0
 
     @Volatile
     private var deletedCount: Int = 0
 
+    // The number of files which are not deleted, counted on first use. Unlike size, it decreases when files are deleted.
+    // Until it's counted, the changes of the maps are not tracked, since the count will include them
+    private var knownLiveFileCount: Int = -1
+
+    private val liveFileCount: Int
+        get() {
+            if (knownLiveFileCount < 0) knownLiveFileCount = idToFile.countIds()
+            return knownLiveFileCount
+        }
+
+    // Garbage is collected in portions of the keys saved to garbageKeysFile. Null if no collection is in progress
+    private var garbageCollection: GarbageCollectionState? = null
+
+    private class GarbageCollectionState(
+        // Garbage of these files will have been removed once all keys are processed
+        val deletedCountAtStart: Int,
+        // The number of keys which are processed already
+        val position: Int,
+        val keyCount: Int
+    ) {
+        override fun toString(): String = "$deletedCountAtStart $position $keyCount"
+
+        companion object {
+            fun parse(line: String): GarbageCollectionState? {
+                val numbers = line.split(' ').map { it.toIntOrNull() ?: return null }
+                if (numbers.size != 3) return null
+                return GarbageCollectionState(numbers[0], numbers[1], numbers[2])
+            }
+        }
+    }
+
     init {
         try {
             if (countersFile.exists()) {
                 val lines = countersFile.readLines()
                 size = lines[0].toInt()
                 deletedCount = lines[1].toInt()
+                // A collection which can't be continued is started again when needed
+                garbageCollection = lines.getOrNull(2)?.let { GarbageCollectionState.parse(it) }?.takeIf { garbageKeysFile.exists() }
             }
         } catch (e: Exception) {
             throw IOException("Could not read $countersFile", e)
@@ -63,68 +118,81 @@ open class LookupStorage(
 
     }
 
-    @Synchronized
     fun get(lookupSymbol: LookupSymbol): Collection<String> {
-        val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
-        val fileIds = lookupMap[key] ?: return emptySet()
+        return lock.read {
+            val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
+            val fileIds = unionOfSortedSets(lookupMap[key] ?: EMPTY_FILE_IDS, pendingLookups[key] ?: EMPTY_FILE_IDS)
 
-        return fileIds.mapNotNull {
-            // null means it's outdated
-            idToFile[it]?.path
+            fileIds.mapNotNull {
+                // null means it's outdated
+                idToFile[it]?.path
+            }
         }
     }
 
-    @Synchronized
     fun addAll(lookups: MultiMap<LookupSymbol, String>, allPaths: Set<String>) {
-        val pathToId = allPaths.sorted().keysToMap { addFileIfNeeded(File(it)) }
-
-        for (lookupSymbol in lookups.keySet().sorted()) {
-            val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
-            val paths = lookups[lookupSymbol]!!
-            val fileIds = paths.mapTo(TreeSet()) { pathToId[it]!! }
-            fileIds.addAll(lookupMap[key] ?: emptySet())
-            lookupMap[key] = fileIds
+        lock.write {
+            val pathToId = allPaths.sorted().keysToMap { addFileIfNeeded(File(it)) }
+
+            for (lookupSymbol in lookups.keySet().sorted()) {
+                val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
+                val paths = lookups[lookupSymbol]
+                val fileIds = IntArray(paths.size)
+                for ((i, path) in paths.withIndex()) {
+                    fileIds[i] = pathToId[path]!!
+                }
+                pendingLookups[key] = unionOfSortedSets(pendingLookups[key] ?: EMPTY_FILE_IDS, fileIds.sortDistinct())
+            }
         }
     }
 
-    @Synchronized
     fun removeLookupsFrom(files: Sequence<File>) {
-        for (file in files) {
-            val id = fileToId[file] ?: continue
-            idToFile.remove(id)
-            fileToId.remove(file)
-            deletedCount++
+        lock.write {
+            for (file in files) {
+                val id = fileToId[file] ?: continue
+                idToFile.remove(id)
+                fileToId.remove(file)
+                deletedCount++
+                if (knownLiveFileCount >= 0) knownLiveFileCount--
+            }
         }
     }
 
-    @Synchronized
     override fun clean() {
-        if (countersFile.exists()) {
-            countersFile.delete()
-        }
+        lock.write {
+            if (countersFile.exists()) {
+                countersFile.delete()
+            }
+            garbageKeysFile.delete()
 
-        size = 0
-        deletedCount = 0
+            size = 0
+            deletedCount = 0
+            knownLiveFileCount = 0
+            garbageCollection = null
+            pendingLookups.clear()
 
-        super.clean()
+            super.clean()
+        }
     }
 
-    @Synchronized
     override fun flush(memoryCachesOnly: Boolean) {
-        try {
-            removeGarbageIfNeeded()
-
-            if (size > 0) {
-                if (!countersFile.exists()) {
-                    countersFile.parentFile.mkdirs()
-                    countersFile.createNewFile()
+        lock.write {
+            try {
+                mergePendingLookups()
+                removeGarbageIfNeeded()
+
+                if (size > 0) {
+                    if (!countersFile.exists()) {
+                        countersFile.parentFile.mkdirs()
+                        countersFile.createNewFile()
+                    }
+
+                    countersFile.writeText("$size\n$deletedCount" + (garbageCollection?.let { "\n$it" } ?: ""))
                 }
-
-                countersFile.writeText("$size\n$deletedCount")
             }
-        }
-        finally {
-            super.flush(memoryCachesOnly)
+            finally {
+                super.flush(memoryCachesOnly)
+            }
         }
     }
 
@@ -135,18 +203,113 @@ open class LookupStorage(
         val id = size++
         fileToId[file] = id
         idToFile[id] = file
+        if (knownLiveFileCount >= 0) knownLiveFileCount++
         return id
     }
 
+    private fun mergePendingLookups() {
+        if (pendingLookups.isEmpty()) return
+
+        for (key in pendingLookups.keys.sorted()) {
+            val added = pendingLookups[key]!!
+            val existing = lookupMap[key]
+            val merged = if (existing == null) added else unionOfSortedSets(existing, added)
+            if (merged !== existing) {
+                lookupMap[key] = merged
+            }
+        }
+        pendingLookups.clear()
+    }
+
     private fun removeGarbageIfNeeded(force: Boolean = false) {
-        if (force || (size > MINIMUM_GARBAGE_COLLECTIBLE_SIZE && deletedCount.toDouble() / size > DELETED_TO_SIZE_TRESHOLD)) {
+        if (force) {
             doRemoveGarbage()
+        } else if (garbageCollection != null || isGarbageCollectionNeeded()) {
+            removeGarbageIncrementally()
+        }
+    }
+
+    // Ids are not renumbered by the incremental collection, so the number of ids ever allocated (size) is not used here
+    private fun isGarbageCollectionNeeded(): Boolean {
+        val fileCount = liveFileCount + deletedCount
+        return fileCount > minimumGarbageCollectibleSize && deletedCount.toDouble() / fileCount > DELETED_TO_SIZE_TRESHOLD
+    }
+
+    /**
+     * Removes ids of deleted files from a bounded number of lookup keys, so that a build doesn't pause to rewrite
+     * the whole storage. Unlike [doRemoveGarbage], ids are not renumbered: maps of ids don't contain deleted files anyway.
+     * The keys are saved once, when the collection starts, and are read from the saved position on every flush.
+     */
+    private fun removeGarbageIncrementally() {
+        val state = garbageCollection ?: startGarbageCollection()
+        var processedKeys = 0
+        var removedKeys = 0
+        var remainingKeys = 0
+
+        val time = measureTimeMillis {
+            val portion = readGarbageKeys(state.position, minOf(garbageCollectedKeysPerFlush, state.keyCount - state.position))
+
+            for (key in portion) {
+                val fileIds = lookupMap[key] ?: continue
+                val liveFileIds = fileIds.filterSortedSet { it in idToFile }
+
+                if (liveFileIds.isEmpty()) {
+                    lookupMap.remove(key)
+                    removedKeys++
+                } else if (liveFileIds !== fileIds) {
+                    lookupMap[key] = liveFileIds
+                }
+            }
+
+            processedKeys = portion.size
+            val position = state.position + portion.size
+            remainingKeys = state.keyCount - position
+            if (remainingKeys > 0) {
+                garbageCollection = GarbageCollectionState(state.deletedCountAtStart, position, state.keyCount)
+            } else {
+                garbageCollection = null
+                garbageKeysFile.delete()
+                deletedCount -= state.deletedCountAtStart
+            }
+        }
+
+        reporter?.report {
+            "Lookup storage garbage collection: processed $processedKeys keys ($removedKeys removed, $remainingKeys remaining) in $time ms"
         }
     }
 
+    private fun startGarbageCollection(): GarbageCollectionState {
+        var keyCount = 0
+        garbageKeysFile.parentFile.mkdirs()
+        DataOutputStream(garbageKeysFile.outputStream().buffered()).use { output ->
+            for (key in lookupMap.keys) {
+                output.writeInt(key.nameHash)
+                output.writeInt(key.scopeHash)
+                keyCount++
+            }
+        }
+        return GarbageCollectionState(deletedCount, position = 0, keyCount = keyCount)
+    }
+
+    private fun readGarbageKeys(position: Int, count: Int): List<LookupSymbolKey> {
+        val keys = ArrayList<LookupSymbolKey>(count)
+        RandomAccessFile(garbageKeysFile, "r").use { file ->
+            file.seek(position.toLong() * GARBAGE_KEY_SIZE)
+            val input = DataInputStream(BufferedInputStream(Channels.newInputStream(file.channel)))
+            repeat(count) {
+                keys.add(LookupSymbolKey(input.readInt(), input.readInt()))
+            }
+        }
+        return keys
+    }
+
     private fun doRemoveGarbage() {
+        mergePendingLookups()
+        garbageCollection = null
+        garbageKeysFile.delete()
+
         for (hash in lookupMap.keys) {
-            lookupMap[hash] = lookupMap[hash]!!.filter { it in idToFile }.toSet()
+            lookupMap[hash] = lookupMap[hash]!!.filterSortedSet { it in idToFile }
         }
 
         val oldFileToId = fileToId.toMap()
@@ -155,6 +318,7 @@ open class LookupStorage(
         fileToId.clean()
         size = 0
         deletedCount = 0
+        knownLiveFileCount = 0
 
         for ((file, oldId) in oldFileToId.entries.sortedBy { it.key.path }) {
             val newId = addFileIfNeeded(file)
@@ -162,7 +326,9 @@ open class LookupStorage(
         }
 
         for (lookup in lookupMap.keys) {
-            val fileIds = lookupMap[lookup]!!.mapNotNull { oldIdToNewId[it] }.toSet()
+            val fileIds = lookupMap[lookup]!!.filterSortedSet { it in oldIdToNewId }.let { oldIds ->
+                IntArray(oldIds.size) { oldIdToNewId[oldIds[it]]!! }.sortDistinct()
+            }
 
             if (fileIds.isEmpty()) {
                 lookupMap.remove(lookup)
@@ -174,39 +340,43 @@ open class LookupStorage(
     }
 
     @TestOnly fun forceGC() {
-        removeGarbageIfNeeded(force = true)
-        flush(false)
+        lock.write {
+            removeGarbageIfNeeded(force = true)
+            flush(false)
+        }
     }
 
     @TestOnly
     fun dump(lookupSymbols: Set<LookupSymbol>): String {
-        flush(false)
+        return lock.write {
+            flush(false)
 
-        val sb = StringBuilder()
-        val p = Printer(sb)
+            val sb = StringBuilder()
+            val p = Printer(sb)
 
-        p.println("====== File to id map")
-        p.println(fileToId.dump())
+            p.println("====== File to id map")
+            p.println(fileToId.dump())
 
-        p.println("====== Id to file map")
-        p.println(idToFile.dump())
+            p.println("====== Id to file map")
+            p.println(idToFile.dump())
 
-        val lookupsStrings = lookupSymbols.groupBy { LookupSymbolKey(it.name, it.scope) }
+            val lookupsStrings = lookupSymbols.groupBy { LookupSymbolKey(it.name, it.scope) }
 
-        for (lookup in lookupMap.keys.sorted()) {
-            val fileIds = lookupMap[lookup]!!
+            for (lookup in lookupMap.keys.sorted()) {
+                val fileIds = lookupMap[lookup]!!
 
-            val key = if (lookup in lookupsStrings) {
-                lookupsStrings[lookup]!!.map { "${it.scope}#${it.name}" }.sorted().joinToString(", ")
-            } else {
-                lookup.toString()
+                val key = if (lookup in lookupsStrings) {
+                    lookupsStrings[lookup]!!.map { "${it.scope}#${it.name}" }.sorted().joinToString(", ")
+                } else {
+                    lookup.toString()
+                }
+
+                val value = fileIds.map { it.toString() }.sorted().joinToString(", ")
+                p.println("$key -> $value")
             }
 
-            val value = fileIds.map { it.toString() }.sorted().joinToString(", ")
-            p.println("$key -> $value")
+            sb.toString()
         }
-
-        return sb.toString()
     }
 }
 
@@ -30,13 +30,19 @@ abstract class BasicMap<K : Comparable<K>, V>(
 ) {
     protected val storage: LazyStorage<K, V>
     private val nonCachingStorage = System.getProperty("kotlin.jps.non.caching.storage")?.toBoolean() ?: false
+    private val snapshotStorage = System.getProperty("kotlin.incremental.snapshot.storage")?.toBoolean() ?: false
 
     init {
-        storage = if (nonCachingStorage) {
+        val writableStorage = if (nonCachingStorage) {
             NonCachingLazyStorage(storageFile, keyDescriptor, valueExternalizer)
         } else {
             CachingLazyStorage(storageFile, keyDescriptor, valueExternalizer)
         }
+        storage = if (snapshotStorage) {
+            SnapshotLazyStorage(storageFile, keyDescriptor, valueExternalizer, writableStorage)
+        } else {
+            writableStorage
+        }
     }
 
     fun clean() {
@@ -39,4 +39,6 @@ internal class IdToFileMap(
     fun remove(id: Int) {
         storage.remove(id)
     }
+
+    fun countIds(): Int = storage.keys.size
 }
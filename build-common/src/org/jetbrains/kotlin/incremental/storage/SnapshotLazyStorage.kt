@@ -0,0 +1,320 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.KeyDescriptor
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+/**
+ * Serves reads from an immutable snapshot of the [delegate] storage, which is memory-mapped from a file next to it.
+ * Reading the snapshot doesn't require opening the [delegate] and doesn't take any locks, so builds which only read
+ * the caches (e.g. when no sources have changed) don't pay for PersistentHashMap.
+ *
+ * The first mutation switches all operations to the [delegate], deletes the snapshot and increments the modification counter
+ * of the storage. Since writing a snapshot takes time proportional to the size of the whole storage, builds which modify
+ * the storage never write it. Instead, a new snapshot is written on [close] of the first build which has read the storage
+ * without modifying it, so that the following builds which only read it are served from the snapshot.
+ *
+ * The snapshot remembers the modification counter, and the size and timestamps of the storage files. It is ignored if any
+ * of them has changed, e.g. when the storage was modified by a version of the compiler which doesn't write snapshots.
+ */
+class SnapshotLazyStorage<K, V>(
+    private val storageFile: File,
+    private val keyDescriptor: KeyDescriptor<K>,
+    private val valueExternalizer: DataExternalizer<V>,
+    private val delegate: LazyStorage<K, V>
+) : LazyStorage<K, V> {
+    private val snapshotFile = File(storageFile.parentFile, storageFile.name + SNAPSHOT_SUFFIX)
+    private val modificationCounterFile = File(storageFile.parentFile, storageFile.name + MODIFICATION_COUNTER_SUFFIX)
+
+    private val snapshotLoader = lazy { loadSnapshot() }
+
+    @Volatile
+    private var modified = false
+
+    private val snapshot: StorageSnapshot<K, V>?
+        get() = if (modified) null else snapshotLoader.value
+
+    override val keys: Collection<K>
+        get() = snapshot?.keys() ?: delegate.keys
+
+    override fun contains(key: K): Boolean =
+        snapshot?.contains(key) ?: delegate.contains(key)
+
+    override fun get(key: K): V? {
+        val snapshot = snapshot ?: return delegate[key]
+        return snapshot[key]
+    }
+
+    override fun set(key: K, value: V) {
+        beforeModification()
+        delegate[key] = value
+    }
+
+    override fun remove(key: K) {
+        beforeModification()
+        delegate.remove(key)
+    }
+
+    override fun append(key: K, value: V) {
+        beforeModification()
+        delegate.append(key, value)
+    }
+
+    @Synchronized
+    override fun clean() {
+        beforeModification()
+        delegate.clean()
+    }
+
+    override fun flush(memoryCachesOnly: Boolean) {
+        delegate.flush(memoryCachesOnly)
+    }
+
+    @Synchronized
+    override fun close() {
+        // The loader is initialized by the first read
+        val needsSnapshot = !modified && snapshotLoader.isInitialized() && snapshotLoader.value == null
+        if (!needsSnapshot || !storageFile.exists()) {
+            delegate.close()
+            return
+        }
+
+        writeSnapshot()
+    }
+
+    @Synchronized
+    private fun beforeModification() {
+        if (modified) return
+
+        modified = true
+        // The counter is incremented before the storage is changed, so an interrupted modification invalidates the snapshot too
+        try {
+            modificationCounterFile.writeText((readModificationCounter() + 1).toString())
+        } catch (e: IOException) {
+            modificationCounterFile.delete()
+        }
+        // The mapped buffer is not unmapped explicitly, so the file can't be deleted on some platforms.
+        // Such a snapshot is ignored anyway, since the modification counter has changed.
+        snapshotFile.delete()
+    }
+
+    // A missing or unreadable counter is reported as -1, which never matches a snapshot
+    private fun readModificationCounter(): Long {
+        if (!modificationCounterFile.exists()) return 0
+        return try {
+            modificationCounterFile.readText().trim().toLongOrNull() ?: -1
+        } catch (e: IOException) {
+            -1
+        }
+    }
+
+    private fun loadSnapshot(): StorageSnapshot<K, V>? {
+        if (!snapshotFile.exists()) return null
+
+        return try {
+            val buffer = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ).use { channel ->
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+            }
+            StorageSnapshot.create(buffer, readModificationCounter(), storageFilesStamp(), keyDescriptor, valueExternalizer)
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    // Closes the delegate after its content is written, since closing PersistentHashMap can change its files
+    private fun writeSnapshot() {
+        val tempFile = File(snapshotFile.path + ".tmp")
+        var delegateClosed = false
+        var written = false
+
+        try {
+            val modificationCounter = readModificationCounter()
+            if (modificationCounter < 0) return
+
+            RandomAccessFile(tempFile, "rw").use { file ->
+                val keys = delegate.keys.toList()
+                val dataStart = HEADER_SIZE + keys.size.toLong() * INDEX_ENTRY_SIZE
+                val index = LongArray(keys.size)
+
+                file.setLength(0)
+                file.seek(dataStart)
+                val output = DataOutputStream(BufferedOutputStream(Channels.newOutputStream(file.channel)))
+                val valueBytes = ByteArrayOutputStream()
+
+                for ((i, key) in keys.withIndex()) {
+                    val value = delegate[key]
+                    valueBytes.reset()
+                    if (value != null) {
+                        valueExternalizer.save(DataOutputStream(valueBytes), value)
+                    }
+
+                    // Offsets are stored as ints, DataOutputStream.size() stops growing at Int.MAX_VALUE
+                    val offset = output.size()
+                    if (offset == Int.MAX_VALUE) return
+                    index[i] = (keyDescriptor.getHashCode(key).toLong() shl 32) or offset.toLong()
+
+                    keyDescriptor.save(output, key)
+                    output.writeInt(if (value != null) valueBytes.size() else ABSENT_VALUE)
+                    valueBytes.writeTo(output)
+                }
+                output.flush()
+                if (output.size() == Int.MAX_VALUE) return
+
+                delegate.close()
+                delegateClosed = true
+
+                index.sort()
+                val header = ByteBuffer.allocate(dataStart.toInt())
+                header.putInt(MAGIC)
+                header.putInt(VERSION)
+                header.putLong(modificationCounter)
+                header.putLong(storageFilesStamp())
+                header.putInt(keys.size)
+                for (entry in index) {
+                    header.putLong(entry)
+                }
+                header.flip()
+                file.channel.write(header, 0)
+                written = true
+            }
+        } catch (e: IOException) {
+            // The snapshot is an optimization, the storage is still consistent without it
+        } finally {
+            if (!delegateClosed) {
+                delegate.close()
+            }
+            if (!written || !tempFile.renameTo(snapshotFile)) {
+                tempFile.delete()
+            }
+        }
+    }
+
+    private fun storageFilesStamp(): Long {
+        val storageFiles = storageFile.parentFile.listFiles { file ->
+            file.name.startsWith(storageFile.name) && !file.name.startsWith(snapshotFile.name)
+        } ?: return 0
+
+        return storageFiles.sortedBy { it.name }.fold(0L) { stamp, file -> (stamp * 31 + file.length()) * 31 + file.lastModified() }
+    }
+
+    companion object {
+        const val SNAPSHOT_SUFFIX = ".snapshot"
+        // Starts with the snapshot suffix, so that it's not included in the stamp of the storage files
+        const val MODIFICATION_COUNTER_SUFFIX = "$SNAPSHOT_SUFFIX.counter"
+
+        private const val MAGIC = 0x4B534E50 // "KSNP"
+        private const val VERSION = 2
+        private const val HEADER_SIZE = 28
+        private const val INDEX_ENTRY_SIZE = 8
+        private const val ABSENT_VALUE = -1
+    }
+
+    /**
+     * Layout: header (magic, version, modification counter, stamp, entry count), index of (key hash, entry offset) pairs sorted by hash,
+     * then entries (key, value length, value). All reads are done on duplicates of the buffer, so they are thread-safe.
+     */
+    private class StorageSnapshot<K, V>(
+        private val buffer: ByteBuffer,
+        private val count: Int,
+        private val keyDescriptor: KeyDescriptor<K>,
+        private val valueExternalizer: DataExternalizer<V>
+    ) {
+        private val dataStart = HEADER_SIZE + count * INDEX_ENTRY_SIZE
+
+        fun keys(): Collection<K> {
+            val result = ArrayList<K>(count)
+            for (i in 0 until count) {
+                val entry = buffer.duplicate().apply { position(dataStart + offsetAt(i)) }
+                val key = keyDescriptor.read(DataInputStream(ByteBufferInputStream(entry)))
+                if (entry.int != ABSENT_VALUE) {
+                    result.add(key)
+                }
+            }
+            return result
+        }
+
+        fun contains(key: K): Boolean =
+            findValue(key) != null
+
+        operator fun get(key: K): V? {
+            val value = findValue(key) ?: return null
+            return valueExternalizer.read(DataInputStream(ByteBufferInputStream(value)))
+        }
+
+        private fun findValue(key: K): ByteBuffer? {
+            val hash = keyDescriptor.getHashCode(key)
+            var i = firstIndexOf(hash)
+            while (i < count && hashAt(i) == hash) {
+                val entry = buffer.duplicate().apply { position(dataStart + offsetAt(i)) }
+                if (keyDescriptor.isEqual(key, keyDescriptor.read(DataInputStream(ByteBufferInputStream(entry))))) {
+                    val length = entry.int
+                    if (length == ABSENT_VALUE) return null
+
+                    return entry.slice().apply { limit(length) }
+                }
+                i++
+            }
+            return null
+        }
+
+        private fun firstIndexOf(hash: Int): Int {
+            var low = 0
+            var high = count
+            while (low < high) {
+                val middle = (low + high) ushr 1
+                if (hashAt(middle) < hash) low = middle + 1 else high = middle
+            }
+            return low
+        }
+
+        private fun hashAt(i: Int): Int = buffer.getInt(HEADER_SIZE + i * INDEX_ENTRY_SIZE)
+
+        private fun offsetAt(i: Int): Int = buffer.getInt(HEADER_SIZE + i * INDEX_ENTRY_SIZE + 4)
+
+        companion object {
+            fun <K, V> create(
+                buffer: ByteBuffer,
+                expectedModificationCounter: Long,
+                expectedStamp: Long,
+                keyDescriptor: KeyDescriptor<K>,
+                valueExternalizer: DataExternalizer<V>
+            ): StorageSnapshot<K, V>? {
+                if (buffer.limit() < HEADER_SIZE) return null
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return null
+                if (expectedModificationCounter < 0 || buffer.getLong(8) != expectedModificationCounter) return null
+                if (buffer.getLong(16) != expectedStamp) return null
+
+                val count = buffer.getInt(24)
+                if (count < 0 || HEADER_SIZE + count.toLong() * INDEX_ENTRY_SIZE > buffer.limit()) return null
+
+                return StorageSnapshot(buffer, count, keyDescriptor, valueExternalizer)
+            }
+        }
+    }
+
+    // Unlike most streams, reports the exact number of remaining bytes in available(), which some externalizers rely on
+    private class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+        override fun read(): Int =
+            if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) return 0
+            if (!buffer.hasRemaining()) return -1
+
+            val count = minOf(len, buffer.remaining())
+            buffer.get(b, off, count)
+            return count
+        }
+
+        override fun available(): Int = buffer.remaining()
+    }
+}
@@ -200,3 +200,22 @@ open class CollectionExternalizer<T>(
 object StringCollectionExternalizer : CollectionExternalizer<String>(EnumeratorStringDescriptor(), { HashSet() })
 
 object IntCollectionExternalizer : CollectionExternalizer<Int>(IntExternalizer, { HashSet() })
+
+/**
+ * Stores ints in the same format as [IntCollectionExternalizer], but reads them into a sorted array without duplicates,
+ * so that file id sets don't box their elements. Values written with [LazyStorage.append] may be unsorted.
+ */
+object SortedIntArrayExternalizer : DataExternalizer<IntArray> {
+    override fun read(input: DataInput): IntArray {
+        val stream = input as DataInputStream
+        val result = IntArray(stream.available() / 4)
+        for (i in result.indices) {
+            result[i] = stream.readInt()
+        }
+        return result.sortDistinct()
+    }
+
+    override fun save(output: DataOutput, value: IntArray) {
+        value.forEach { output.writeInt(it) }
+    }
+}
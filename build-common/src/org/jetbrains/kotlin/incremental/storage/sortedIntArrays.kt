@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+// Helpers for sets of ints represented as sorted arrays without duplicates, e.g. ids of files in the lookup storage
+
+/**
+ * Sorts [this] in place and returns a sorted set of its elements (which may be [this] if there were no duplicates).
+ */
+internal fun IntArray.sortDistinct(): IntArray {
+    if (size < 2) return this
+    sort()
+
+    var distinct = 1
+    for (i in 1 until size) {
+        if (this[i] != this[distinct - 1]) {
+            this[distinct++] = this[i]
+        }
+    }
+    return if (distinct == size) this else copyOf(distinct)
+}
+
+/**
+ * Returns a union of two sorted sets. Returns one of the arguments if it already contains all elements of the other.
+ */
+internal fun unionOfSortedSets(a: IntArray, b: IntArray): IntArray {
+    if (a.isEmpty()) return b
+    if (b.isEmpty()) return a
+
+    val result = IntArray(a.size + b.size)
+    var i = 0
+    var j = 0
+    var count = 0
+    while (i < a.size && j < b.size) {
+        val x = a[i]
+        val y = b[j]
+        result[count++] = when {
+            x < y -> x.also { i++ }
+            x > y -> y.also { j++ }
+            else -> x.also { i++; j++ }
+        }
+    }
+    while (i < a.size) result[count++] = a[i++]
+    while (j < b.size) result[count++] = b[j++]
+
+    return when (count) {
+        a.size -> a
+        b.size -> b
+        else -> result.copyOf(count)
+    }
+}
+
+internal inline fun IntArray.filterSortedSet(predicate: (Int) -> Boolean): IntArray {
+    val result = IntArray(size)
+    var count = 0
+    for (element in this) {
+        if (predicate(element)) result[count++] = element
+    }
+    return if (count == size) this else result.copyOf(count)
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import com.intellij.util.containers.MultiMap
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.jetbrains.kotlin.incremental.storage.FileToCanonicalPathConverter
+import org.junit.Test
+import java.io.File
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class LookupStorageConcurrencyTest : TestWithWorkingDir() {
+    @Test
+    fun testConcurrentUpdatesAreNotLost() {
+        val storage = LookupStorage(File(workingDir, "caches"), FileToCanonicalPathConverter)
+        val symbols = (0 until SYMBOLS).map { LookupSymbol("name$it", "scope${it % 7}") }
+        val barrier = CyclicBarrier(THREADS)
+        val executor = Executors.newFixedThreadPool(THREADS)
+
+        try {
+            val futures = (0 until THREADS).map { thread ->
+                executor.submit {
+                    barrier.await()
+                    for (batch in 0 until BATCHES) {
+                        val path = File(workingDir, "src/thread$thread/file$batch.kt").canonicalPath
+                        val lookups = MultiMap.createSet<LookupSymbol, String>()
+                        for (symbol in symbols) {
+                            lookups.putValue(symbol, path)
+                        }
+                        storage.addAll(lookups, setOf(path))
+
+                        // Interleave queries and flushes with the updates of other threads
+                        assertTrue(path in storage.get(symbols[batch % SYMBOLS]))
+                        if (batch % 10 == thread % 10) {
+                            storage.flush(memoryCachesOnly = false)
+                        }
+                    }
+                }
+            }
+            futures.forEach { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            executor.shutdownNow()
+        }
+
+        storage.flush(memoryCachesOnly = false)
+        for (symbol in symbols) {
+            assertEquals(THREADS * BATCHES, storage.get(symbol).toSet().size)
+        }
+        storage.close()
+    }
+
+    private companion object {
+        const val THREADS = 8
+        const val BATCHES = 50
+        const val SYMBOLS = 100
+    }
+}
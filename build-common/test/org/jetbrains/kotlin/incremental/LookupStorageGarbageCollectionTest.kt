@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import com.intellij.util.containers.MultiMap
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.incremental.storage.FileToCanonicalPathConverter
+import org.junit.Test
+import java.io.File
+
+class LookupStorageGarbageCollectionTest : TestWithWorkingDir() {
+    private val reports = ArrayList<String>()
+
+    private val reporter = object : ICReporterBase() {
+        override fun report(message: () -> String) {
+            reports.add(message())
+        }
+
+        override fun reportVerbose(message: () -> String) {}
+
+        override fun reportCompileIteration(incremental: Boolean, sourceFiles: Collection<File>, exitCode: ExitCode) {}
+    }
+
+    private fun createStorage() =
+        LookupStorage(
+            File(workingDir, "caches"), FileToCanonicalPathConverter, reporter,
+            minimumGarbageCollectibleSize = 0, garbageCollectedKeysPerFlush = 3
+        )
+
+    @Test
+    fun testStaleIdsAndKeysAreRemovedAcrossFlushes() {
+        val files = (0 until FILES).map { File(workingDir, "src/file$it.kt") }
+        val shared = LookupSymbol("shared", "p")
+        val own = files.indices.map { LookupSymbol("own$it", "p") }
+
+        var storage = createStorage()
+        val lookups = MultiMap.createSet<LookupSymbol, String>()
+        for ((i, file) in files.withIndex()) {
+            lookups.putValue(shared, file.canonicalPath)
+            lookups.putValue(own[i], file.canonicalPath)
+        }
+        storage.addAll(lookups, files.mapTo(HashSet()) { it.canonicalPath })
+        storage.flush(memoryCachesOnly = false)
+        assertTrue(reports.isEmpty())
+
+        val deleted = files.take(DELETED)
+        storage.removeLookupsFrom(deleted.asSequence())
+
+        storage.flush(memoryCachesOnly = false)
+        assertEquals(1, reports.size)
+
+        // The collection is continued after the storage is reopened
+        storage.close()
+        storage = createStorage()
+        while (!reports.last().contains(", 0 remaining")) {
+            storage.flush(memoryCachesOnly = false)
+        }
+        // (FILES + 1) keys are processed by 3 per flush
+        assertEquals((FILES + 1 + 2) / 3, reports.size)
+
+        val dump = storage.dump(own.toSet() + shared)
+        for (i in deleted.indices) {
+            assertFalse("Stale key of a deleted file: p#own$i", dump.contains("p#own$i ->"))
+        }
+        for (i in DELETED until FILES) {
+            assertTrue("Key of a live file is removed: p#own$i", dump.contains("p#own$i ->"))
+        }
+        for (file in deleted) {
+            assertFalse("Stale id of a deleted file: $file", dump.contains(file.canonicalPath))
+        }
+        assertEquals(files.drop(DELETED).map { it.canonicalPath }.toSet(), storage.get(shared).toSet())
+
+        // Nothing is collected until more files are deleted
+        reports.clear()
+        storage.flush(memoryCachesOnly = false)
+        assertTrue(reports.isEmpty())
+        storage.close()
+    }
+
+    @Test
+    fun testFilesDeletedAfterReopeningAreCountedOnce() {
+        val files = (0 until FILES).map { File(workingDir, "src/file$it.kt") }
+        val lookups = MultiMap.createSet<LookupSymbol, String>()
+        for ((i, file) in files.withIndex()) {
+            lookups.putValue(LookupSymbol("own$i", "p"), file.canonicalPath)
+        }
+
+        var storage = createStorage()
+        storage.addAll(lookups, files.mapTo(HashSet()) { it.canonicalPath })
+        storage.flush(memoryCachesOnly = false)
+        storage.close()
+
+        // The number of live files is counted only after the first deletion after reopening.
+        // Deleting half of the files is not enough for a collection
+        storage = createStorage()
+        storage.removeLookupsFrom(files.take(FILES / 2).asSequence())
+        storage.flush(memoryCachesOnly = false)
+        assertTrue(reports.isEmpty())
+
+        storage.removeLookupsFrom(sequenceOf(files.last()))
+        storage.flush(memoryCachesOnly = false)
+        assertEquals(1, reports.size)
+        storage.close()
+    }
+
+    private companion object {
+        const val FILES = 10
+        const val DELETED = 8
+    }
+}
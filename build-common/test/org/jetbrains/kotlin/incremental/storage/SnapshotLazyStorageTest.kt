@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import com.intellij.util.io.EnumeratorStringDescriptor
+import org.jetbrains.kotlin.TestWithWorkingDir
+import org.junit.Test
+import java.io.File
+
+class SnapshotLazyStorageTest : TestWithWorkingDir() {
+    private val storageFile: File
+        get() = File(workingDir, "map.tab")
+
+    private val snapshotFile: File
+        get() = File(workingDir, "map.tab" + SnapshotLazyStorage.SNAPSHOT_SUFFIX)
+
+    private fun createStorage() =
+        SnapshotLazyStorage(
+            storageFile, EnumeratorStringDescriptor.INSTANCE, IntCollectionExternalizer,
+            CachingLazyStorage(storageFile, EnumeratorStringDescriptor.INSTANCE, IntCollectionExternalizer)
+        )
+
+    @Test
+    fun testReadsFromSnapshot() {
+        createStorage().apply {
+            set("a", setOf(1, 2))
+            set("b", setOf(3))
+            append("b", setOf(4))
+            close()
+        }
+        // Builds which modify the storage don't pay for writing the snapshot
+        assertFalse(snapshotFile.exists())
+
+        createStorage().apply {
+            assertEquals(setOf(1, 2), get("a")?.toSet())
+            close()
+        }
+        assertTrue(snapshotFile.exists())
+
+        createStorage().apply {
+            assertEquals(setOf(1, 2), get("a")?.toSet())
+            assertEquals(setOf(3, 4), get("b")?.toSet())
+            assertNull(get("c"))
+            assertTrue("a" in this)
+            assertFalse("c" in this)
+            assertEquals(setOf("a", "b"), keys.toSet())
+            close()
+        }
+    }
+
+    @Test
+    fun testModificationSwitchesToWritableStorage() {
+        createStorage().apply {
+            set("a", setOf(1))
+            close()
+        }
+
+        createStorage().apply {
+            assertEquals(setOf(1), get("a")?.toSet())
+            remove("a")
+            set("b", setOf(2))
+            assertNull(get("a"))
+            assertEquals(setOf(2), get("b")?.toSet())
+            close()
+        }
+
+        createStorage().apply {
+            assertEquals(setOf("b"), keys.toSet())
+            close()
+        }
+    }
+
+    @Test
+    fun testSnapshotIsNotWrittenWithoutReads() {
+        createStorage().apply {
+            set("a", setOf(1))
+            close()
+        }
+        createStorage().close()
+        assertFalse(snapshotFile.exists())
+    }
+
+    @Test
+    fun testOutdatedSnapshotIsIgnored() {
+        createStorage().apply {
+            set("a", setOf(1))
+            close()
+        }
+        createStorage().apply {
+            assertEquals(setOf(1), get("a")?.toSet())
+            close()
+        }
+        assertTrue(snapshotFile.exists())
+
+        // Simulates a compiler which doesn't know about snapshots
+        CachingLazyStorage(storageFile, EnumeratorStringDescriptor.INSTANCE, IntCollectionExternalizer).apply {
+            set("a", setOf(2))
+            close()
+        }
+
+        createStorage().apply {
+            assertEquals(setOf(2), get("a")?.toSet())
+            close()
+        }
+    }
+
+    @Test
+    fun testSnapshotIsIgnoredAfterModificationWithSameFileStamps() {
+        createStorage().apply {
+            set("a", setOf(1))
+            close()
+        }
+        createStorage().apply {
+            assertEquals(setOf(1), get("a")?.toSet())
+            close()
+        }
+        val snapshotBytes = snapshotFile.readBytes()
+        val storageFiles = workingDir.listFiles { file -> !file.name.startsWith(snapshotFile.name) }!!
+        val timestamps = storageFiles.associate { it to it.lastModified() }
+
+        createStorage().apply {
+            set("a", setOf(2))
+            close()
+        }
+
+        // Simulates a snapshot which couldn't be deleted, and storage files whose sizes and timestamps haven't changed
+        snapshotFile.writeBytes(snapshotBytes)
+        for ((file, timestamp) in timestamps) {
+            file.setLastModified(timestamp)
+        }
+
+        createStorage().apply {
+            assertEquals(setOf(2), get("a")?.toSet())
+            close()
+        }
+    }
+}
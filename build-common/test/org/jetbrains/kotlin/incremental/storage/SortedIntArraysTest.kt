@@ -0,0 +1,32 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class SortedIntArraysTest {
+    @Test
+    fun testSortDistinct() {
+        assertArrayEquals(intArrayOf(1, 2, 5), intArrayOf(5, 1, 2, 5, 1).sortDistinct())
+        assertArrayEquals(intArrayOf(), intArrayOf().sortDistinct())
+    }
+
+    @Test
+    fun testUnion() {
+        assertArrayEquals(intArrayOf(1, 2, 3, 5, 8), unionOfSortedSets(intArrayOf(1, 3, 8), intArrayOf(2, 3, 5)))
+
+        val superset = intArrayOf(1, 2, 3)
+        assertSame(superset, unionOfSortedSets(superset, intArrayOf(2)))
+        assertSame(superset, unionOfSortedSets(intArrayOf(1, 3), superset))
+    }
+
+    @Test
+    fun testFilter() {
+        assertArrayEquals(intArrayOf(2, 4), intArrayOf(1, 2, 3, 4).filterSortedSet { it % 2 == 0 })
+    }
+}
@@ -46,11 +46,13 @@ import org.jetbrains.kotlin.resolve.CompilerDeserializationConfiguration;
 import org.jetbrains.kotlin.resolve.descriptorUtil.DescriptorUtilsKt;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
 import org.jetbrains.kotlin.serialization.StringTableImpl;
+import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
 import org.jetbrains.org.objectweb.asm.Type;
 
 import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 import static org.jetbrains.kotlin.codegen.JvmCodegenUtil.getMappingFileName;
 
@@ -59,9 +61,13 @@ public class ClassFileFactory implements OutputFileCollection {
     private final ClassBuilderFactory builderFactory;
     private final Map<String, OutAndSourceFileList> generators = new LinkedHashMap<>();
 
-    private boolean isDone = false;
+    private final ThreadLocal<GenerationUnit> currentUnit = new ThreadLocal<>();
+    // Not yet committed units in the order of their creation, which is the order in which they are committed
+    private final List<GenerationUnit> activeUnits = new ArrayList<>();
 
-    private final Set<File> sourceFiles = new HashSet<>();
+    private volatile boolean isDone = false;
+
+    private final Set<File> sourceFiles = Collections.synchronizedSet(new HashSet<>());
     private final PackagePartRegistry packagePartRegistry = new PackagePartRegistry();
 
     public ClassFileFactory(@NotNull GenerationState state, @NotNull ClassBuilderFactory builderFactory) {
@@ -93,7 +99,7 @@ public class ClassFileFactory implements OutputFileCollection {
             @NotNull Collection<? extends PsiFile> sourceFiles
     ) {
         ClassBuilder answer = builderFactory.newClassBuilder(origin);
-        generators.put(
+        putGenerator(
                 asmType.getInternalName() + ".class",
                 new ClassBuilderAndSourceFileList(answer, toIoFilesIgnoringNonPhysical(sourceFiles))
         );
@@ -107,13 +113,130 @@ public class ClassFileFactory implements OutputFileCollection {
             @NotNull List<File> sourceFiles
     ) {
         ClassBuilder answer = builderFactory.newClassBuilder(origin);
-        generators.put(
+        putGenerator(
                 asmType.getInternalName() + ".class",
                 new ClassBuilderAndSourceFileList(answer, sourceFiles)
         );
         return answer;
     }
 
+    private void putGenerator(@NotNull String relativePath, @NotNull OutAndSourceFileList generator) {
+        GenerationUnit unit = currentUnit.get();
+        if (unit != null) {
+            unit.generators.put(relativePath, generator);
+        }
+        else {
+            synchronized (generators) {
+                generators.put(relativePath, generator);
+            }
+        }
+    }
+
+    /**
+     * Creates a unit of code generation which can be run on a separate thread. All classes created while the unit is running
+     * are kept in the unit until {@link #commitUnits(List)} is called, so that the order of the output files does not depend
+     * on the order in which units have finished. Units must be committed in the order of their creation.
+     */
+    @NotNull
+    public GenerationUnit newGenerationUnit() {
+        GenerationUnit unit = new GenerationUnit();
+        synchronized (activeUnits) {
+            activeUnits.add(unit);
+        }
+        return unit;
+    }
+
+    public boolean isInGenerationUnit() {
+        return currentUnit.get() != null;
+    }
+
+    /**
+     * Moves classes generated by the given units to the output, as if the units were run sequentially in the given order.
+     */
+    public void commitUnits(@NotNull List<GenerationUnit> units) {
+        synchronized (generators) {
+            for (GenerationUnit unit : units) {
+                for (Map.Entry<String, OutAndSourceFileList> entry : unit.generators.entrySet()) {
+                    if (entry.getValue() == REMOVED) {
+                        generators.remove(entry.getKey());
+                    }
+                    else {
+                        generators.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+        synchronized (activeUnits) {
+            activeUnits.removeAll(units);
+        }
+    }
+
+    /**
+     * A unit sees the same classes as if all units were run sequentially: its own classes, and the classes of the units created
+     * before it. The latter are read only after those units are finished, so the result doesn't depend on scheduling.
+     * Classes of the units created after the current one are never visible.
+     */
+    @Nullable
+    private OutAndSourceFileList findGenerator(@NotNull String relativePath) {
+        GenerationUnit unit = currentUnit.get();
+        if (unit != null) {
+            OutAndSourceFileList generator = unit.generators.get(relativePath);
+            if (generator != null) return generator == REMOVED ? null : generator;
+
+            List<GenerationUnit> previousUnits;
+            synchronized (activeUnits) {
+                int index = activeUnits.indexOf(unit);
+                previousUnits = new ArrayList<>(activeUnits.subList(0, Math.max(index, 0)));
+            }
+            // The latest unit which has generated or removed the class wins, as it would on commit
+            for (int i = previousUnits.size() - 1; i >= 0; i--) {
+                GenerationUnit previous = previousUnits.get(i);
+                previous.awaitFinished();
+                generator = previous.generators.get(relativePath);
+                if (generator != null) return generator == REMOVED ? null : generator;
+            }
+        }
+
+        synchronized (generators) {
+            return generators.get(relativePath);
+        }
+    }
+
+    public final class GenerationUnit {
+        private final Map<String, OutAndSourceFileList> generators = Collections.synchronizedMap(new LinkedHashMap<>());
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private GenerationUnit() {
+        }
+
+        /**
+         * Runs the generation of the unit. Can be called only once, since the classes of the unit become visible to the units
+         * created after it when the {@code block} is finished.
+         */
+        public void execute(@NotNull Runnable block) {
+            GenerationUnit previous = currentUnit.get();
+            currentUnit.set(this);
+            try {
+                block.run();
+            }
+            finally {
+                currentUnit.set(previous);
+                finished.countDown();
+            }
+        }
+
+        // Units are run on a pool in the order of their creation, so a previous unit is either running or finished already
+        private void awaitFinished() {
+            try {
+                finished.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw ExceptionUtilsKt.rethrow(e);
+            }
+        }
+    }
+
     public void done() {
         if (!isDone) {
             isDone = true;
@@ -122,7 +245,9 @@ public class ClassFileFactory implements OutputFileCollection {
     }
 
     public void releaseGeneratedOutput() {
-        generators.clear();
+        synchronized (generators) {
+            generators.clear();
+        }
     }
 
     private void writeModuleMappings() {
@@ -140,7 +265,7 @@ public class ClassFileFactory implements OutputFileCollection {
 
         JvmModuleProtoBuf.Module moduleProto = builder.build();
 
-        generators.put(outputFilePath, new OutAndSourceFileList(CollectionsKt.toList(sourceFiles)) {
+        putGenerator(outputFilePath, new OutAndSourceFileList(CollectionsKt.toList(sourceFiles)) {
             @Override
             public byte[] asBytes(ClassBuilderFactory factory) {
                 int flags = 0;
@@ -189,13 +314,16 @@ public class ClassFileFactory implements OutputFileCollection {
 
     @NotNull
     public List<OutputFile> getCurrentOutput() {
-        return CollectionsKt.map(generators.keySet(), OutputClassFile::new);
+        synchronized (generators) {
+            return CollectionsKt.map(generators.keySet(), OutputClassFile::new);
+        }
     }
 
     @Override
     @Nullable
     public OutputFile get(@NotNull String relativePath) {
-        return generators.containsKey(relativePath) ? new OutputClassFile(relativePath) : null;
+        OutAndSourceFileList generator = findGenerator(relativePath);
+        return generator != null ? new OutputClassFile(relativePath, generator) : null;
     }
 
     @NotNull
@@ -283,9 +411,22 @@ public class ClassFileFactory implements OutputFileCollection {
 
     private class OutputClassFile implements OutputFile {
         private final String relativeClassFilePath;
+        private final OutAndSourceFileList generator;
 
         public OutputClassFile(String relativeClassFilePath) {
+            this(relativeClassFilePath, null);
+        }
+
+        public OutputClassFile(String relativeClassFilePath, @Nullable OutAndSourceFileList generator) {
             this.relativeClassFilePath = relativeClassFilePath;
+            this.generator = generator;
+        }
+
+        private OutAndSourceFileList getGenerator() {
+            if (generator != null) return generator;
+            synchronized (generators) {
+                return generators.get(relativeClassFilePath);
+            }
         }
 
         @NotNull
@@ -297,7 +438,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @NotNull
         @Override
         public List<File> getSourceFiles() {
-            OutAndSourceFileList pair = generators.get(relativeClassFilePath);
+            OutAndSourceFileList pair = getGenerator();
             if (pair == null) {
                 throw new IllegalStateException("No record for binary file " + relativeClassFilePath);
             }
@@ -309,7 +450,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @Override
         public byte[] asByteArray() {
             try {
-                return generators.get(relativeClassFilePath).asBytes(builderFactory);
+                return getGenerator().asBytes(builderFactory);
             }
             catch (RuntimeException e) {
                 throw new RuntimeException("Error generating class file " + this.toString() + ": " + e.getMessage(), e);
@@ -320,7 +461,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @Override
         public String asText() {
             try {
-                return generators.get(relativeClassFilePath).asText(builderFactory);
+                return getGenerator().asText(builderFactory);
             }
             catch (RuntimeException e) {
                 throw new RuntimeException("Error generating class file " + this.toString() + ": " + e.getMessage(), e);
@@ -366,9 +507,30 @@ public class ClassFileFactory implements OutputFileCollection {
         public abstract String asText(ClassBuilderFactory factory);
     }
 
+    // Marks a class removed by a generation unit, so that the removal is replayed in order in commitUnits
+    private static final OutAndSourceFileList REMOVED = new OutAndSourceFileList(Collections.emptyList()) {
+        @Override
+        public byte[] asBytes(ClassBuilderFactory factory) {
+            throw new IllegalStateException("Class file was removed");
+        }
+
+        @Override
+        public String asText(ClassBuilderFactory factory) {
+            throw new IllegalStateException("Class file was removed");
+        }
+    };
+
     public void removeClasses(Set<String> classNamesToRemove) {
+        GenerationUnit unit = currentUnit.get();
         for (String classInternalName : classNamesToRemove) {
-            generators.remove(classInternalName + ".class");
+            if (unit != null) {
+                unit.generators.put(classInternalName + ".class", REMOVED);
+            }
+            else {
+                synchronized (generators) {
+                    generators.remove(classInternalName + ".class");
+                }
+            }
         }
     }
 
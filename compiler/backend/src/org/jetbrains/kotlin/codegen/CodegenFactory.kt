@@ -22,6 +22,10 @@ import org.jetbrains.kotlin.fileClasses.JvmFileClassUtil
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 import org.jetbrains.kotlin.psi.KtFile
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
 
 interface CodegenFactory {
     fun generateModule(state: GenerationState, files: Collection<KtFile>, errorHandler: CompilationErrorHandler)
@@ -55,19 +59,64 @@ object DefaultCodegenFactory : CodegenFactory {
             }
         }
 
+        val units = ArrayList<() -> Unit>()
+
         val obsoleteMultifileClasses = HashSet(state.obsoleteMultifileClasses)
         for (multifileClassFqName in filesInMultifileClasses.keySet() + obsoleteMultifileClasses) {
-            CodegenFactory.doCheckCancelled(state)
-            generateMultifileClass(state, multifileClassFqName, filesInMultifileClasses.get(multifileClassFqName), errorHandler)
+            units.add { generateMultifileClass(state, multifileClassFqName, filesInMultifileClasses.get(multifileClassFqName), errorHandler) }
         }
 
         val packagesWithObsoleteParts = HashSet(state.packagesWithObsoleteParts)
         for (packageFqName in packagesWithObsoleteParts + filesInPackages.keySet()) {
-            CodegenFactory.doCheckCancelled(state)
-            generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler)
+            units.add { generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler) }
+        }
+
+        if (state.backendThreads > 1 && units.size > 1) {
+            generateUnitsInParallel(state, units)
+        } else {
+            for (unit in units) {
+                CodegenFactory.doCheckCancelled(state)
+                unit()
+            }
+        }
+    }
+
+    // Each package and multifile class is generated on a worker thread into its own unit of the class file factory. Units are
+    // committed in the same order as they would be generated sequentially, so that the output does not depend on scheduling.
+    // Classes of a unit only become visible to GenerationState.afterIndependentPart callbacks after the unit is committed, so the
+    // callback is invoked here, on the calling thread, after each commit.
+    private fun generateUnitsInParallel(state: GenerationState, units: List<() -> Unit>) {
+        val factory = state.factory
+        val generationUnits = units.map { factory.newGenerationUnit() }
+        val executor = Executors.newFixedThreadPool(minOf(state.backendThreads, units.size), CodegenThreadFactory)
+        try {
+            val futures = units.mapIndexed { index, unit ->
+                executor.submit(Runnable {
+                    CodegenFactory.doCheckCancelled(state)
+                    generationUnits[index].execute(Runnable { unit() })
+                })
+            }
+            for ((index, future) in futures.withIndex()) {
+                try {
+                    future.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+                factory.commitUnits(listOf(generationUnits[index]))
+                state.afterIndependentPart()
+            }
+        } finally {
+            executor.shutdownNow()
         }
     }
 
+    private object CodegenThreadFactory : ThreadFactory {
+        private val counter = AtomicInteger()
+
+        override fun newThread(r: Runnable): Thread =
+            Thread(r, "Kotlin JVM codegen worker ${counter.incrementAndGet()}").apply { isDaemon = true }
+    }
+
     override fun createPackageCodegen(state: GenerationState, files: Collection<KtFile>, fqName: FqName) =
             PackageCodegenImpl(state, files, fqName)
 
@@ -22,6 +22,7 @@ import org.jetbrains.kotlin.name.FqName
 class PackagePartRegistry {
     val parts = mutableMapOf<FqName, PackageParts>()
 
+    @Synchronized
     fun addPart(packageFqName: FqName, partInternalName: String, facadeInternalName: String?) {
         parts.computeIfAbsent(packageFqName) { PackageParts(it.asString()) }.addPart(partInternalName, facadeInternalName)
     }
@@ -38,8 +38,11 @@ class SamWrapperClasses(private val state: GenerationState) {
     ): Type {
         val isInsideInline = InlineUtil.isInlineOrContainingInline(expressionCodegen.context.contextDescriptor) ||
                 isInsideInlineLambdaContext(expressionCodegen.context, state)
-        return samInterfaceToWrapperClass.getOrPut(WrapperKey(samType, file, isInsideInline)) {
-            SamWrapperCodegen(state, samType, expressionCodegen.parentCodegen, isInsideInline).genWrapper(file, contextDescriptor)
+        // a wrapper is generated only once per key, even if it is requested by several threads at once
+        return synchronized(samInterfaceToWrapperClass) {
+            samInterfaceToWrapperClass.getOrPut(WrapperKey(samType, file, isInsideInline)) {
+                SamWrapperCodegen(state, samType, expressionCodegen.parentCodegen, isInsideInline).genWrapper(file, contextDescriptor)
+            }
         }
     }
 
@@ -37,7 +37,7 @@ abstract class TransformationMethodVisitor(
     api: Int = Opcodes.API_VERSION
 ) : MethodVisitor(api) {
 
-    private val methodNode = MethodNode(access, name, desc, signature, exceptions).apply {
+    protected val methodNode = MethodNode(access, name, desc, signature, exceptions).apply {
         localVariables = ArrayList(5)
     }
 
@@ -58,18 +58,34 @@ abstract class TransformationMethodVisitor(
     }
 
     override fun visitEnd() {
+        completeMethodNode()
+        transform()
+        emit()
+    }
+
+    /**
+     * Finishes building the method node. After that, [transform] and [emit] can be called separately,
+     * e.g. to transform the method on another thread.
+     */
+    protected fun completeMethodNode() {
         // force mv to calculate maxStack/maxLocals in case it didn't yet done
         if (methodNode.maxLocals <= 0 || methodNode.maxStack <= 0) {
             mv.visitMaxs(-1, -1)
         }
 
         super.visitEnd()
+    }
 
-        try {
+    protected fun transform() {
+        wrapExceptions {
             if (shouldBeTransformed(methodNode)) {
                 performTransformations(methodNode)
             }
+        }
+    }
 
+    protected fun emit() {
+        wrapExceptions {
             methodNode.accept(EndIgnoringMethodVisitorDecorator(Opcodes.API_VERSION, delegate))
 
 
@@ -88,6 +104,12 @@ abstract class TransformationMethodVisitor(
             }
 
             delegate.visitEnd()
+        }
+    }
+
+    private inline fun wrapExceptions(block: () -> Unit) {
+        try {
+            block()
         } catch (t: Throwable) {
             throw CompilationException("Couldn't transform method node:\n" + methodNode.nodeText, t, null)
         }
@@ -218,12 +218,15 @@ public class CodegenBinding {
             @NotNull ClassDescriptor outer,
             @NotNull ClassDescriptor inner
     ) {
-        Collection<ClassDescriptor> innerClasses = bindingTrace.get(INNER_CLASSES, outer);
-        if (innerClasses == null) {
-            innerClasses = new ArrayList<>(1);
-            bindingTrace.record(INNER_CLASSES, outer, innerClasses);
+        // The check and the creation of the list must be atomic, otherwise inner classes recorded at the same time might be lost
+        synchronized (bindingTrace) {
+            Collection<ClassDescriptor> innerClasses = bindingTrace.get(INNER_CLASSES, outer);
+            if (innerClasses == null) {
+                innerClasses = new ArrayList<>(1);
+                bindingTrace.record(INNER_CLASSES, outer, innerClasses);
+            }
+            innerClasses.add(inner);
         }
-        innerClasses.add(inner);
     }
 
     @NotNull
@@ -10,24 +10,32 @@ import org.jetbrains.kotlin.diagnostics.DiagnosticSink
 import org.jetbrains.kotlin.resolve.calls.model.ResolvedCall
 import java.util.*
 
-class GlobalInlineContext(diagnostics: DiagnosticSink) {
+class GlobalInlineContext(private val diagnostics: DiagnosticSink) {
 
-    private val inlineCycleReporter: InlineCycleReporter = InlineCycleReporter(diagnostics)
+    // Each thread inlines its own chain of calls, so the cycle detection and the used types are not shared between threads
+    private val inlineStack = ThreadLocal.withInitial { InlineStack() }
 
-    private val typesUsedInInlineFunctions = LinkedList<MutableSet<String>>()
+    private inner class InlineStack {
+        val inlineCycleReporter: InlineCycleReporter = InlineCycleReporter(diagnostics)
 
-    fun enterIntoInlining(call: ResolvedCall<*>?) =
-        inlineCycleReporter.enterIntoInlining(call).also {
-            if (it) typesUsedInInlineFunctions.push(hashSetOf())
+        val typesUsedInInlineFunctions = LinkedList<MutableSet<String>>()
+    }
+
+    fun enterIntoInlining(call: ResolvedCall<*>?): Boolean {
+        val stack = inlineStack.get()
+        return stack.inlineCycleReporter.enterIntoInlining(call).also {
+            if (it) stack.typesUsedInInlineFunctions.push(hashSetOf())
         }
+    }
 
     fun exitFromInliningOf(call: ResolvedCall<*>?) {
-        inlineCycleReporter.exitFromInliningOf(call)
-        val pop = typesUsedInInlineFunctions.pop()
-        typesUsedInInlineFunctions.peek()?.addAll(pop)
+        val stack = inlineStack.get()
+        stack.inlineCycleReporter.exitFromInliningOf(call)
+        val pop = stack.typesUsedInInlineFunctions.pop()
+        stack.typesUsedInInlineFunctions.peek()?.addAll(pop)
     }
 
-    fun recordTypeFromInlineFunction(type: String) = typesUsedInInlineFunctions.peek().add(type)
+    fun recordTypeFromInlineFunction(type: String) = inlineStack.get().typesUsedInInlineFunctions.peek().add(type)
 
-    fun isTypeFromInlineFunction(type: String) = typesUsedInInlineFunctions.peek().contains(type)
-}
\ No newline at end of file
+    fun isTypeFromInlineFunction(type: String) = inlineStack.get().typesUsedInInlineFunctions.peek().contains(type)
+}
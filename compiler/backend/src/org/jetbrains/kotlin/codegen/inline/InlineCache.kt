@@ -16,24 +16,65 @@
 
 package org.jetbrains.kotlin.codegen.inline
 
-import com.intellij.util.containers.SLRUMap
+import com.intellij.openapi.vfs.VirtualFile
 import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.utils.WeightedLruCache
 import org.jetbrains.org.objectweb.asm.commons.Method
+import java.io.File
 
 data class MethodId(val ownerInternalName: String, val method: Method)
 
-class InlineCache {
-    val classBytes: SLRUMap<ClassId, ByteArray> = SLRUMap(30, 20)
-    val methodNodeById: SLRUMap<MethodId, SMAPAndMethodNode> = SLRUMap(60, 50)
+/**
+ * Caches bytes of the library classes containing inline functions and parsed inline function bodies during one compilation.
+ * [sizeInBytes] limits the estimated memory footprint, which is divided equally between the class bytes and the method nodes.
+ */
+class InlineCache(sizeInBytes: Long = DEFAULT_SIZE_IN_BYTES) {
+    val classBytes: WeightedLruCache<ClassId, ByteArray> = WeightedLruCache(sizeInBytes / 2) { it.size.toLong() }
+    val methodNodeById: WeightedLruCache<MethodId, SMAPAndMethodNode> = WeightedLruCache(sizeInBytes / 2, ::estimateSize)
+
+    companion object {
+        const val DEFAULT_SIZE_IN_BYTES = 32L * 1024 * 1024
+    }
 }
 
-inline fun <K, V> SLRUMap<K, V>.getOrPut(key: K, defaultValue: () -> V): V {
-    val value = get(key)
-    return if (value == null) {
-        val answer = defaultValue()
-        put(key, answer)
-        answer
-    } else {
-        value
+/**
+ * Inline function bodies which are kept between compilations in a long-living process, such as the compile daemon.
+ * Entries are keyed by the location of the class file and the timestamp and length of the file (or the jar containing it),
+ * so that a changed library is read again. The cache takes at most 1/16 of the maximal heap and should be [clear]ed
+ * when the process runs low on memory.
+ */
+object SharedInlineCache {
+    private val SIZE_IN_BYTES = minOf(128L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16)
+
+    data class ClassFileKey(val path: String, val timeStamp: Long, val length: Long)
+
+    val classBytes: WeightedLruCache<ClassFileKey, ByteArray> = WeightedLruCache(SIZE_IN_BYTES / 2) { it.size.toLong() }
+    val methodNodes: WeightedLruCache<Pair<ClassFileKey, Method>, SMAPAndMethodNode> = WeightedLruCache(SIZE_IN_BYTES / 2, ::estimateSize)
+
+    // Returns null for files which are not on the disk (e.g. in-memory files in tests) and for files modified within the
+    // timestamp granularity of the file system, since another modification in the same interval could keep the timestamp.
+    // Such files are never shared.
+    fun keyOf(file: VirtualFile): ClassFileKey? {
+        val path = file.path
+        val container = File(path.substringBefore(JAR_SEPARATOR))
+        val timeStamp = container.lastModified()
+        if (timeStamp == 0L || System.currentTimeMillis() - timeStamp < TIMESTAMP_GRANULARITY_MS) return null
+        return ClassFileKey(path, timeStamp, container.length())
     }
+
+    fun clear() {
+        classBytes.clear()
+        methodNodes.clear()
+    }
+
+    private const val JAR_SEPARATOR = "!/"
+
+    // The coarsest granularity of file modification times among the common file systems (FAT)
+    private const val TIMESTAMP_GRANULARITY_MS = 2000L
 }
+
+// A rough estimate of the memory taken by an instruction node together with its operands
+private const val BYTES_PER_INSTRUCTION = 64L
+
+private fun estimateSize(methodNode: SMAPAndMethodNode): Long =
+    methodNode.node.instructions.size() * BYTES_PER_INSTRUCTION
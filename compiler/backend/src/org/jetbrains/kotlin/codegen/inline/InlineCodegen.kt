@@ -17,6 +17,7 @@ import org.jetbrains.kotlin.codegen.intrinsics.IntrinsicArrayConstructors
 import org.jetbrains.kotlin.codegen.state.GenerationState
 import org.jetbrains.kotlin.codegen.state.KotlinTypeMapper
 import org.jetbrains.kotlin.descriptors.*
+import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.renderer.DescriptorRenderer
 import org.jetbrains.kotlin.resolve.DescriptorToSourceUtils
@@ -547,7 +548,8 @@ abstract class InlineCodegen<out T : BaseExpressionCodegen>(
                 result ?: throw IllegalStateException("Couldn't obtain compiled function body for $functionDescriptor")
             }
 
-            return resultInCache.copyWithNewNode(cloneMethodNode(resultInCache.node))
+            // Cloning resets labels of the cached node, which can be used by other threads in the parallel codegen
+            return resultInCache.copyWithNewNode(synchronized(resultInCache.node) { cloneMethodNode(resultInCache.node) })
         }
 
         private fun createDefaultFakeSMAP() = SMAPParser.parseOrCreateDefault(null, null, "fake", -1, -1)
@@ -595,11 +597,35 @@ abstract class InlineCodegen<out T : BaseExpressionCodegen>(
 
             val containerId = containingClasses.implClassId
 
+            if (state.useSharedInlineCache) {
+                val file = findVirtualFile(state, containerId)
+                    ?: throw IllegalStateException("Couldn't find declaration file for $containerId")
+                val key = SharedInlineCache.keyOf(file)
+                if (key != null) {
+                    val cached = SharedInlineCache.methodNodes.get(key to asmMethod)
+                    if (cached != null) return cached
+
+                    val bytes = SharedInlineCache.classBytes.getOrPut(key) { file.contentsToByteArray() }
+                    return createMethodNodeFromBytes(callableDescriptor, bytes, containerId, asmMethod)?.also {
+                        SharedInlineCache.methodNodes.put(key to asmMethod, it)
+                    }
+                }
+            }
+
             val bytes = state.inlineCache.classBytes.getOrPut(containerId) {
                 findVirtualFile(state, containerId)?.contentsToByteArray()
                     ?: throw IllegalStateException("Couldn't find declaration file for $containerId")
             }
 
+            return createMethodNodeFromBytes(callableDescriptor, bytes, containerId, asmMethod)
+        }
+
+        private fun createMethodNodeFromBytes(
+            callableDescriptor: CallableMemberDescriptor,
+            bytes: ByteArray,
+            containerId: ClassId,
+            asmMethod: Method
+        ): SMAPAndMethodNode? {
             val methodNode =
                 getMethodNode(bytes, asmMethod.name, asmMethod.descriptor, AsmUtil.asmTypeByClassId(containerId)) ?: return null
 
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization
+
+import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Total time spent in each kind of method transformers, so that it's visible which optimization pass dominates.
+ * Transformers may run on several threads at once.
+ */
+class MethodTransformerStatistics {
+    private val nanosByTransformer = ConcurrentHashMap<String, AtomicLong>()
+
+    fun transform(transformer: MethodTransformer, internalClassName: String, methodNode: MethodNode) {
+        val start = System.nanoTime()
+        try {
+            transformer.transform(internalClassName, methodNode)
+        } finally {
+            val time = System.nanoTime() - start
+            nanosByTransformer.getOrPut(transformer::class.java.simpleName) { AtomicLong() }.addAndGet(time)
+        }
+    }
+
+    /**
+     * Returns the time in milliseconds by the transformer name, the slowest transformers first.
+     */
+    fun getTimes(): List<Pair<String, Long>> =
+        nanosByTransformer.entries
+            .map { (name, nanos) -> name to TimeUnit.NANOSECONDS.toMillis(nanos.get()) }
+            .sortedByDescending { it.second }
+}
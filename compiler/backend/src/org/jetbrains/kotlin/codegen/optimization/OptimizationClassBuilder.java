@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.codegen.optimization;
 
+import kotlin.Unit;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.codegen.ClassBuilder;
@@ -24,13 +25,30 @@ import org.jetbrains.kotlin.codegen.state.GenerationState;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 public class OptimizationClassBuilder extends DelegatingClassBuilder {
     private final ClassBuilder delegate;
     private final GenerationState generationState;
+    @Nullable
+    private final ExecutorService optimizationExecutor;
+    // Methods which are being optimized on the executor. They are emitted in the order of creation before the class is done
+    private final List<OptimizationMethodVisitor> deferredMethods = new ArrayList<>();
 
     public OptimizationClassBuilder(@NotNull ClassBuilder delegate, @NotNull GenerationState generationState) {
+        this(delegate, generationState, null);
+    }
+
+    public OptimizationClassBuilder(
+            @NotNull ClassBuilder delegate,
+            @NotNull GenerationState generationState,
+            @Nullable ExecutorService optimizationExecutor
+    ) {
         this.delegate = delegate;
         this.generationState = generationState;
+        this.optimizationExecutor = optimizationExecutor;
     }
 
     @NotNull
@@ -51,7 +69,22 @@ public class OptimizationClassBuilder extends DelegatingClassBuilder {
     ) {
         return new OptimizationMethodVisitor(
                 super.newMethod(origin, access, name, desc, signature, exceptions),
-                generationState, access, name, desc, signature, exceptions
+                generationState, access, name, desc, signature, exceptions,
+                optimizationExecutor,
+                optimizationExecutor == null ? null : visitor -> {
+                    deferredMethods.add(visitor);
+                    return Unit.INSTANCE;
+                }
         );
     }
+
+    @Override
+    public void done() {
+        for (OptimizationMethodVisitor method : deferredMethods) {
+            method.emitTransformed();
+        }
+        deferredMethods.clear();
+
+        super.done();
+    }
 }
@@ -22,17 +22,57 @@ import org.jetbrains.kotlin.codegen.DelegatingClassBuilderFactory;
 import org.jetbrains.kotlin.codegen.state.GenerationState;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
 
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class OptimizationClassBuilderFactory extends DelegatingClassBuilderFactory {
     private final GenerationState generationState;
+    // Optimizes large methods off the codegen thread if several backend threads are requested. Threads are only started
+    // for the first large methods and exit when idle, so that they are not leaked if the factory is never closed
+    private final ExecutorService optimizationExecutor;
+
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 1;
 
     public OptimizationClassBuilderFactory(ClassBuilderFactory delegate, @NotNull GenerationState generationState) {
         super(delegate);
         this.generationState = generationState;
+        this.optimizationExecutor = generationState.getBackendThreads() > 1
+                                    ? createOptimizationExecutor(generationState.getBackendThreads())
+                                    : null;
+    }
+
+    @NotNull
+    private static ExecutorService createOptimizationExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new OptimizationThreadFactory()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @NotNull
     @Override
     public OptimizationClassBuilder newClassBuilder(@NotNull JvmDeclarationOrigin origin) {
-        return new OptimizationClassBuilder(getDelegate().newClassBuilder(origin), generationState);
+        return new OptimizationClassBuilder(getDelegate().newClassBuilder(origin), generationState, optimizationExecutor);
+    }
+
+    @Override
+    public void close() {
+        if (optimizationExecutor != null) {
+            optimizationExecutor.shutdownNow();
+        }
+        getDelegate().close();
+    }
+
+    private static class OptimizationThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "Kotlin JVM optimization worker " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
@@ -26,6 +26,9 @@ import org.jetbrains.kotlin.codegen.optimization.transformer.CompositeMethodTran
 import org.jetbrains.kotlin.codegen.state.GenerationState
 import org.jetbrains.org.objectweb.asm.MethodVisitor
 import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
 
 class OptimizationMethodVisitor(
     delegate: MethodVisitor,
@@ -34,7 +37,10 @@ class OptimizationMethodVisitor(
     name: String,
     desc: String,
     signature: String?,
-    exceptions: Array<String>?
+    exceptions: Array<String>?,
+    // If not null, large methods are optimized on this executor, and [emitTransformed] must be called to emit them
+    private val optimizationExecutor: ExecutorService? = null,
+    private val onDeferred: ((OptimizationMethodVisitor) -> Unit)? = null
 ) : TransformationMethodVisitor(delegate, access, name, desc, signature, exceptions) {
     private val constructorCallNormalizationTransformer =
         UninitializedStoresMethodTransformer(generationState.constructorCallNormalizationMode)
@@ -58,12 +64,44 @@ class OptimizationMethodVisitor(
         MethodVerifier("AFTER optimizations")
     )
 
+    private var pendingTransformation: Future<*>? = null
+
+    override fun visitEnd() {
+        if (optimizationExecutor == null || onDeferred == null) {
+            super.visitEnd()
+            return
+        }
+
+        completeMethodNode()
+        if (methodNode.instructions.size() < MIN_DEFERRED_METHOD_SIZE) {
+            transform()
+            emit()
+        } else {
+            pendingTransformation = optimizationExecutor.submit { transform() }
+            onDeferred.invoke(this)
+        }
+    }
+
+    /**
+     * Waits until the deferred transformation is finished and emits the method. Should be called on the codegen thread,
+     * in the order of methods, so that the output doesn't depend on the order in which the transformations are finished.
+     */
+    fun emitTransformed() {
+        val transformation = pendingTransformation ?: error("Method is not deferred")
+        try {
+            transformation.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+        emit()
+    }
+
     override fun performTransformations(methodNode: MethodNode) {
         normalizationMethodTransformer.transform("fake", methodNode)
         constructorCallNormalizationTransformer.transform("fake", methodNode)
 
         if (canBeOptimized(methodNode) && !generationState.disableOptimization) {
-            optimizationTransformer.transform("fake", methodNode)
+            optimizationTransformer.transform("fake", methodNode, generationState.methodTransformerStatistics)
         }
 
         DeadCodeEliminationMethodTransformer().transform("fake", methodNode)
@@ -74,6 +112,9 @@ class OptimizationMethodVisitor(
     companion object {
         private val MEMORY_LIMIT_BY_METHOD_MB = 50
 
+        // Smaller methods are optimized faster than a task is scheduled
+        private const val MIN_DEFERRED_METHOD_SIZE = 100
+
         fun canBeOptimized(node: MethodNode): Boolean {
             val totalFramesSizeMb = node.instructions.size() * (node.maxLocals + node.maxStack) / (1024 * 1024)
             return totalFramesSizeMb < MEMORY_LIMIT_BY_METHOD_MB
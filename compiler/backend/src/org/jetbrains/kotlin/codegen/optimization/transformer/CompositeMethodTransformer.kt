@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.codegen.optimization.transformer
 
+import org.jetbrains.kotlin.codegen.optimization.MethodTransformerStatistics
 import org.jetbrains.org.objectweb.asm.tree.MethodNode
 
 open class CompositeMethodTransformer(private val transformers: List<MethodTransformer>) : MethodTransformer() {
@@ -25,6 +26,10 @@ open class CompositeMethodTransformer(private val transformers: List<MethodTrans
         transformers.forEach { it.transform(internalClassName, methodNode) }
     }
 
+    fun transform(internalClassName: String, methodNode: MethodNode, statistics: MethodTransformerStatistics) {
+        transformers.forEach { statistics.transform(it, internalClassName, methodNode) }
+    }
+
     companion object {
         inline fun build(builder: MutableList<MethodTransformer>.() -> Unit) =
             CompositeMethodTransformer(ArrayList<MethodTransformer>().apply { builder() })
@@ -61,12 +61,16 @@ class BuilderFactoryForDuplicateSignatureDiagnostics(
     private val reportDiagnosticsTasks = ArrayList<() -> Unit>()
 
     fun reportDiagnostics() {
-        reportDiagnosticsTasks.forEach { it() }
-        reportDiagnosticsTasks.clear()
+        val tasks = synchronized(reportDiagnosticsTasks) {
+            reportDiagnosticsTasks.toList().also { reportDiagnosticsTasks.clear() }
+        }
+        tasks.forEach { it() }
     }
 
     override fun handleClashingSignatures(data: ConflictingJvmDeclarationsData) {
-        reportDiagnosticsTasks.add { reportConflictingJvmSignatures(data) }
+        synchronized(reportDiagnosticsTasks) {
+            reportDiagnosticsTasks.add { reportConflictingJvmSignatures(data) }
+        }
     }
 
     private fun reportConflictingJvmSignatures(data: ConflictingJvmDeclarationsData) {
@@ -17,6 +17,7 @@ import org.jetbrains.kotlin.codegen.extensions.ClassBuilderInterceptorExtension
 import org.jetbrains.kotlin.codegen.inline.GlobalInlineContext
 import org.jetbrains.kotlin.codegen.inline.InlineCache
 import org.jetbrains.kotlin.codegen.intrinsics.IntrinsicMethods
+import org.jetbrains.kotlin.codegen.optimization.MethodTransformerStatistics
 import org.jetbrains.kotlin.codegen.optimization.OptimizationClassBuilderFactory
 import org.jetbrains.kotlin.codegen.serialization.JvmSerializationBindings
 import org.jetbrains.kotlin.config.*
@@ -42,6 +43,7 @@ import org.jetbrains.kotlin.resolve.jvm.JvmClassName
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOriginKind.*
 import org.jetbrains.kotlin.serialization.deserialization.DeserializationConfiguration
+import org.jetbrains.kotlin.storage.LockBasedLazyResolveStorageManager
 import org.jetbrains.kotlin.storage.LockBasedStorageManager
 import org.jetbrains.kotlin.types.KotlinType
 import java.io.File
@@ -136,7 +138,10 @@ class GenerationState private constructor(
         }
     }
 
-    val inlineCache: InlineCache = InlineCache()
+    val inlineCache: InlineCache =
+        InlineCache(configuration.get(JVMConfigurationKeys.INLINE_CACHE_SIZE)?.toLong()?.times(1024 * 1024) ?: InlineCache.DEFAULT_SIZE_IN_BYTES)
+
+    val useSharedInlineCache: Boolean = configuration.getBoolean(JVMConfigurationKeys.SHARED_INLINE_CACHE)
 
     val incrementalCacheForThisTarget: IncrementalCache?
     val packagesWithObsoleteParts: Set<FqName>
@@ -169,8 +174,16 @@ class GenerationState private constructor(
         }
     }
 
-    val extraJvmDiagnosticsTrace: BindingTrace =
+    /**
+     * The number of threads generating the packages and multifile classes of the module. If it is more than one, each package and
+     * multifile class is generated into its own [ClassFileFactory.GenerationUnit], and everything shared between them (this state,
+     * its traces, the class file factory and the per-module helpers such as SAM wrappers and `when` mappings) must be thread-safe.
+     */
+    val backendThreads: Int = configuration.get(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, 1).coerceAtLeast(1)
+
+    val extraJvmDiagnosticsTrace: BindingTrace = protectIfParallel(
         DelegatingBindingTrace(bindingContext, "For extra diagnostics in ${this::class.java}", false)
+    )
     private val interceptedBuilderFactory: ClassBuilderFactory
     private var used = false
 
@@ -186,9 +199,11 @@ class GenerationState private constructor(
 
     val moduleName: String = moduleName ?: JvmCodegenUtil.getModuleName(module)
     val classBuilderMode: ClassBuilderMode = builderFactory.classBuilderMode
-    val bindingTrace: BindingTrace = DelegatingBindingTrace(
-        bindingContext, "trace in GenerationState",
-        filter = if (wantsDiagnostics) BindingTraceFilter.ACCEPT_ALL else BindingTraceFilter.NO_DIAGNOSTICS
+    val bindingTrace: BindingTrace = protectIfParallel(
+        DelegatingBindingTrace(
+            bindingContext, "trace in GenerationState",
+            filter = if (wantsDiagnostics) BindingTraceFilter.ACCEPT_ALL else BindingTraceFilter.NO_DIAGNOSTICS
+        )
     )
     val bindingContext: BindingContext = bindingTrace.bindingContext
     val mainFunctionDetector = MainFunctionDetector(bindingContext, languageVersionSettings)
@@ -255,6 +270,8 @@ class GenerationState private constructor(
 
     val disableOptimization = configuration.get(JVMConfigurationKeys.DISABLE_OPTIMIZATION, false)
 
+    val methodTransformerStatistics = MethodTransformerStatistics()
+
     val metadataVersion = configuration.get(CommonConfigurationKeys.METADATA_VERSION) ?: JvmMetadataVersion.INSTANCE
 
     val globalSerializationBindings = JvmSerializationBindings()
@@ -295,6 +312,10 @@ class GenerationState private constructor(
     }
 
     fun afterIndependentPart() {
+        // Classes generated on a worker thread are not in the output until their unit is committed, so the callback is invoked
+        // by DefaultCodegenFactory after each commit instead
+        if (factory.isInGenerationUnit) return
+
         onIndependentPartCompilationEnd(this)
     }
 
@@ -308,6 +329,12 @@ class GenerationState private constructor(
         interceptedBuilderFactory.close()
     }
 
+    private fun protectIfParallel(trace: BindingTrace): BindingTrace =
+        if (backendThreads > 1)
+            LockBasedLazyResolveStorageManager(LockBasedStorageManager("GenerationState")).createSafeTrace(trace)
+        else
+            trace
+
     private fun shouldOnlyCollectSignatures(origin: JvmDeclarationOrigin) =
         classBuilderMode == ClassBuilderMode.LIGHT_CLASSES && origin.originKind in doNotGenerateInLightClassMode
 }
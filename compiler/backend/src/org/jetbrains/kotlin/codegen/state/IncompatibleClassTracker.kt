@@ -35,6 +35,8 @@ interface IncompatibleClassTracker {
 class IncompatibleClassTrackerImpl(val trace: BindingTrace) : IncompatibleClassTracker {
     private val classes = linkedSetOf<String>()
 
+    // the code generation units running in parallel record the classes they load at the same time
+    @Synchronized
     override fun record(binaryClass: KotlinJvmBinaryClass) {
         if (classes.add(binaryClass.location)) {
             val errorData = IncompatibleVersionErrorData(
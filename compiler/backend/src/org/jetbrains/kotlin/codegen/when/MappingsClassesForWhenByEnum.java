@@ -36,7 +36,8 @@ public class MappingsClassesForWhenByEnum {
         this.mappingsCodegen = new MappingClassesForWhenByEnumCodegen(state);
     }
 
-    public void generateMappingsClassForExpression(@NotNull KtWhenExpression expression) {
+    // Synchronized so that a mappings class shared by several packages is generated only once
+    public synchronized void generateMappingsClassForExpression(@NotNull KtWhenExpression expression) {
         WhenByEnumsMapping mapping = state.getBindingContext().get(CodegenBinding.MAPPING_FOR_WHEN_BY_ENUM, expression);
 
         assert mapping != null : "mapping class should not be requested for non enum when";
@@ -104,6 +104,19 @@ class K2JVMCompilerArguments : CommonCompilerArguments() {
     @Argument(value = "-Xstrict-java-nullability-assertions", description = "Generate nullability assertions for non-null Java expressions")
     var strictJavaNullabilityAssertions: Boolean by FreezableVar(false)
 
+    @Argument(
+        value = "-Xinline-cache-size",
+        valueDescription = "<MB>",
+        description = "Maximum size of the cache of library classes and inline function bodies used by the inliner, in megabytes"
+    )
+    var inlineCacheSize: String? by NullableStringFreezableVar(null)
+
+    @Argument(
+        value = "-Xno-jar-compression",
+        description = "Store entries of the resulting .jar uncompressed, which makes it faster to write and to load for local runs"
+    )
+    var noJarCompression: Boolean by FreezableVar(false)
+
     @Argument(value = "-Xno-optimize", description = "Disable optimizations")
     var noOptimize: Boolean by FreezableVar(false)
 
@@ -127,6 +140,13 @@ class K2JVMCompilerArguments : CommonCompilerArguments() {
     )
     var assertionsMode: String? by NullableStringFreezableVar(JVMAssertionsMode.DEFAULT.description)
 
+    @Argument(
+        value = "-Xbackend-threads",
+        valueDescription = "<N>",
+        description = "Generate class files of different packages in parallel using N threads [experimental]"
+    )
+    var backendThreads: String? by NullableStringFreezableVar(null)
+
     @Argument(
         value = "-Xbuild-file",
         deprecatedName = "-module",
@@ -147,6 +167,12 @@ class K2JVMCompilerArguments : CommonCompilerArguments() {
     )
     var skipRuntimeVersionCheck: Boolean by FreezableVar(false)
 
+    @Argument(
+        value = "-Xskip-unchanged-output",
+        description = "Do not rewrite class files which have the same content in the output directory, preserving their timestamps"
+    )
+    var skipUnchangedOutput: Boolean by FreezableVar(false)
+
     @Argument(
         value = "-Xuse-old-class-files-reading",
         description = "Use old class files reading implementation. This may slow down the build and cause problems with Groovy interop.\n" +
@@ -15,7 +15,7 @@ import org.jetbrains.kotlin.js.parser.parse
 import org.jetbrains.kotlin.js.parser.sourcemaps.*
 import org.jetbrains.kotlin.js.sourceMap.SourceFilePathResolver
 import org.jetbrains.kotlin.js.sourceMap.SourceMap3Builder
-import org.jetbrains.kotlin.js.util.TextOutputImpl
+import org.jetbrains.kotlin.js.util.WriterTextOutput
 import java.io.File
 import java.io.StringReader
 import kotlin.system.exitProcess
@@ -72,15 +72,15 @@ private fun mergeStdlibParts(outputFile: File, wrapperFile: File, baseDir: File,
     program.globalBlock.statements += wrapper
 
     val sourceMapFile = File(outputFile.parentFile, outputFile.name + ".map")
-    val textOutput = TextOutputImpl()
-    val sourceMapBuilder = SourceMap3Builder(outputFile, textOutput, "")
-    val consumer = SourceMapBuilderConsumer(File("."), sourceMapBuilder, SourceFilePathResolver(mutableListOf()), true, true)
-    program.globalBlock.accept(JsToStringGenerationVisitor(textOutput, consumer))
-    val sourceMapContent = sourceMapBuilder.build()
-
-    val programText = textOutput.toString()
-
-    outputFile.writeText(programText + "\n//# sourceMappingURL=${sourceMapFile.name}\n")
+    val textOutput = WriterTextOutput(outputFile.bufferedWriter())
+    val sourceMapContent = textOutput.use {
+        val sourceMapBuilder = SourceMap3Builder(outputFile, textOutput, "")
+        val consumer = SourceMapBuilderConsumer(File("."), sourceMapBuilder, SourceFilePathResolver(mutableListOf()), true, true)
+        program.globalBlock.accept(JsToStringGenerationVisitor(textOutput, consumer))
+        sourceMapBuilder.build().also {
+            textOutput.print("\n//# sourceMappingURL=${sourceMapFile.name}\n")
+        }
+    }
 
     val sourceMapJson = parseJson(sourceMapContent)
     val sources = (sourceMapJson as JsonObject).properties["sources"] as JsonArray
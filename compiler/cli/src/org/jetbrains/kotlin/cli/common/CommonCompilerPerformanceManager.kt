@@ -5,6 +5,8 @@
 
 package org.jetbrains.kotlin.cli.common
 
+import org.jetbrains.kotlin.codegen.inline.InlineCache
+import org.jetbrains.kotlin.codegen.optimization.MethodTransformerStatistics
 import org.jetbrains.kotlin.util.PerformanceCounter
 import java.io.File
 import java.lang.management.ManagementFactory
@@ -55,6 +57,19 @@ abstract class CommonCompilerPerformanceManager(private val presentableName: Str
         measurements += CodeGenerationMeasurement(lines, files, TimeUnit.NANOSECONDS.toMillis(time), additionalDescription)
     }
 
+    fun notifyInlineCacheStatistics(inlineCache: InlineCache) {
+        if (!isEnabled) return
+        measurements += InlineCacheMeasurement(
+            inlineCache.classBytes.hitCount, inlineCache.classBytes.missCount,
+            inlineCache.methodNodeById.hitCount, inlineCache.methodNodeById.missCount
+        )
+    }
+
+    fun notifyMethodTransformerStatistics(statistics: MethodTransformerStatistics) {
+        if (!isEnabled) return
+        measurements += MethodTransformerMeasurement(statistics.getTimes())
+    }
+
     fun dumpPerformanceReport(destination: File) {
         destination.writeBytes(createPerformanceReport())
     }
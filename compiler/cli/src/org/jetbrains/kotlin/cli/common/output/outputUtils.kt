@@ -22,14 +22,52 @@ import org.jetbrains.kotlin.backend.common.output.OutputFileCollection
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector
 import org.jetbrains.kotlin.cli.common.messages.OutputMessageUtil
+import java.io.Closeable
 import java.io.File
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+// Below this number of files, starting writer threads costs more than it saves, since most class files are small
+private const val PARALLEL_WRITE_THRESHOLD = 256
 
 fun OutputFileCollection.writeAll(outputDir: File, report: ((file: OutputFile, sources: List<File>, output: File) -> Unit)?) {
+    writeAll(outputDir, report, skipUnchanged = false)
+}
+
+fun OutputFileCollection.writeAll(
+    outputDir: File,
+    report: ((file: OutputFile, sources: List<File>, output: File) -> Unit)?,
+    skipUnchanged: Boolean
+) {
+    val files = asList()
+    if (files.size < PARALLEL_WRITE_THRESHOLD) {
+        for (file in files) {
+            val output = File(outputDir, file.relativePath)
+            report?.invoke(file, file.sourceFiles, output)
+            writeOutputFile(output, file.asByteArray(), skipUnchanged)
+        }
+    } else {
+        OutputFileWriter(skipUnchanged = skipUnchanged).use { writer ->
+            writeAll(outputDir, report, writer)
+        }
+    }
+}
+
+/**
+ * Submits all files to the [writer]. Files are not guaranteed to be on the disk until the writer is closed.
+ */
+fun OutputFileCollection.writeAll(
+    outputDir: File,
+    report: ((file: OutputFile, sources: List<File>, output: File) -> Unit)?,
+    writer: OutputFileWriter
+) {
     for (file in asList()) {
-        val sources = file.sourceFiles
         val output = File(outputDir, file.relativePath)
-        report?.invoke(file, sources, output)
-        FileUtil.writeToFile(output, file.asByteArray())
+        report?.invoke(file, file.sourceFiles, output)
+        writer.write(output, file.asByteArray())
     }
 }
 
@@ -38,8 +76,103 @@ fun OutputFileCollection.writeAllTo(outputDir: File) {
 }
 
 fun OutputFileCollection.writeAll(outputDir: File, messageCollector: MessageCollector, reportOutputFiles: Boolean) {
-    if (!reportOutputFiles) writeAllTo(outputDir)
-    else writeAll(outputDir) { _, sources, output ->
-        messageCollector.report(CompilerMessageSeverity.OUTPUT, OutputMessageUtil.formatOutputMessage(sources, output))
+    writeAll(outputDir, messageCollector, reportOutputFiles, skipUnchanged = false)
+}
+
+fun OutputFileCollection.writeAll(
+    outputDir: File,
+    messageCollector: MessageCollector,
+    reportOutputFiles: Boolean,
+    skipUnchanged: Boolean
+) {
+    writeAll(outputDir, messageCollector.outputReporter(reportOutputFiles), skipUnchanged)
+}
+
+fun OutputFileCollection.writeAll(
+    outputDir: File,
+    messageCollector: MessageCollector,
+    reportOutputFiles: Boolean,
+    writer: OutputFileWriter
+) {
+    writeAll(outputDir, messageCollector.outputReporter(reportOutputFiles), writer)
+}
+
+private fun MessageCollector.outputReporter(reportOutputFiles: Boolean): ((OutputFile, List<File>, File) -> Unit)? {
+    if (!reportOutputFiles) return null
+    return { _, sources, output ->
+        report(CompilerMessageSeverity.OUTPUT, OutputMessageUtil.formatOutputMessage(sources, output))
+    }
+}
+
+/**
+ * Writes files on a small pool of threads, so that the caller (e.g. the code generator) can proceed while the previously
+ * submitted files are being written. [close] waits until all submitted files are written and rethrows the first failure.
+ * All files with the same path are written by the same thread in the order of submission, so if a file is submitted
+ * several times, the last submitted content ends up on the disk.
+ *
+ * If [skipUnchanged] is true, files which already exist on the disk with the same content are not rewritten, so their
+ * timestamps are preserved. This is not done by default because some build tools detect stale outputs by timestamps.
+ */
+class OutputFileWriter(
+    threads: Int = DEFAULT_THREADS,
+    private val skipUnchanged: Boolean = false
+) : Closeable {
+    // The threads are started lazily by the executors, when the first file is submitted to them
+    private val executors = Array(threads) {
+        ThreadPoolExecutor(
+            1, 1, 1, TimeUnit.SECONDS, LinkedBlockingQueue(),
+            ThreadFactory { runnable -> Thread(runnable, "Kotlin output writer").apply { isDaemon = true } }
+        )
+    }
+
+    // Limits the amount of class file bytes which are kept in memory while waiting to be written
+    private val pendingFiles = Semaphore(MAX_PENDING_FILES)
+
+    @Volatile
+    private var error: Throwable? = null
+
+    fun write(output: File, bytes: ByteArray) {
+        error?.let { throw it }
+
+        pendingFiles.acquire()
+        try {
+            executorFor(output).execute {
+                try {
+                    writeOutputFile(output, bytes, skipUnchanged)
+                } catch (e: Throwable) {
+                    synchronized(this) {
+                        if (error == null) error = e
+                    }
+                } finally {
+                    pendingFiles.release()
+                }
+            }
+        } catch (e: Throwable) {
+            pendingFiles.release()
+            throw e
+        }
     }
+
+    private fun executorFor(output: File): ThreadPoolExecutor =
+        executors[(output.absoluteFile.normalize().hashCode() and Int.MAX_VALUE) % executors.size]
+
+    override fun close() {
+        executors.forEach { it.shutdown() }
+        for (executor in executors) {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the pending files
+            }
+        }
+        error?.let { throw it }
+    }
+
+    companion object {
+        private val DEFAULT_THREADS = minOf(4, Runtime.getRuntime().availableProcessors())
+        private const val MAX_PENDING_FILES = 512
+    }
+}
+
+private fun writeOutputFile(output: File, bytes: ByteArray, skipUnchanged: Boolean) {
+    if (skipUnchanged && output.length() == bytes.size.toLong() && output.isFile && output.readBytes().contentEquals(bytes)) return
+    FileUtil.writeToFile(output, bytes)
 }
@@ -48,3 +48,21 @@ class GarbageCollectionMeasurement(private val garbageCollectionKind: String, pr
 class PerformanceCounterMeasurement(private val counterReport: String) : PerformanceMeasurement {
     override fun render(): String = counterReport
 }
+
+
+class InlineCacheMeasurement(
+    private val classBytesHits: Long,
+    private val classBytesMisses: Long,
+    private val methodNodeHits: Long,
+    private val methodNodeMisses: Long
+) : PerformanceMeasurement {
+    override fun render(): String =
+        "INLINE CACHE: class bytes $classBytesHits hits, $classBytesMisses misses; " +
+                "inline functions $methodNodeHits hits, $methodNodeMisses misses"
+}
+
+
+class MethodTransformerMeasurement(private val millisecondsByTransformer: List<Pair<String, Long>>) : PerformanceMeasurement {
+    override fun render(): String =
+        "METHOD TRANSFORMERS: " + millisecondsByTransformer.joinToString { (name, milliseconds) -> "$name $milliseconds ms" }
+}
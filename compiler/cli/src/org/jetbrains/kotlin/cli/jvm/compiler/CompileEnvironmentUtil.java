@@ -31,11 +31,15 @@ import org.jetbrains.kotlin.utils.ExceptionUtilsKt;
 import org.jetbrains.kotlin.utils.PathUtil;
 
 import java.io.*;
+import java.nio.file.NoSuchFileException;
 import java.util.jar.*;
 
 import static org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.ERROR;
 
 public class CompileEnvironmentUtil {
+    // JarOutputStream writes compressed data in small chunks, so it's buffered to avoid a system call per chunk
+    private static final int JAR_OUTPUT_BUFFER_SIZE = 64 * 1024;
+
     @NotNull
     public static ModuleChunk loadModuleChunk(File buildFile, MessageCollector messageCollector) {
         if (!buildFile.exists()) {
@@ -54,14 +58,7 @@ public class CompileEnvironmentUtil {
             OutputFileCollection outputFiles, OutputStream fos, @Nullable FqName mainClass, boolean includeRuntime
     ) {
         try {
-            Manifest manifest = new Manifest();
-            Attributes mainAttributes = manifest.getMainAttributes();
-            mainAttributes.putValue("Manifest-Version", "1.0");
-            mainAttributes.putValue("Created-By", "JetBrains Kotlin");
-            if (mainClass != null) {
-                mainAttributes.putValue("Main-Class", mainClass.asString());
-            }
-            JarOutputStream stream = new JarOutputStream(fos, manifest);
+            JarOutputStream stream = new JarOutputStream(fos, createManifest(mainClass));
             for (OutputFile outputFile : outputFiles.asList()) {
                 stream.putNextEntry(new JarEntry(outputFile.getRelativePath()));
                 stream.write(outputFile.asByteArray());
@@ -76,10 +73,76 @@ public class CompileEnvironmentUtil {
         }
     }
 
+    @NotNull
+    private static Manifest createManifest(@Nullable FqName mainClass) {
+        Manifest manifest = new Manifest();
+        Attributes mainAttributes = manifest.getMainAttributes();
+        mainAttributes.putValue("Manifest-Version", "1.0");
+        mainAttributes.putValue("Created-By", "JetBrains Kotlin");
+        if (mainClass != null) {
+            mainAttributes.putValue("Main-Class", mainClass.asString());
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the jar with {@link JarFileWriter}, which copies the runtime classes without recompressing them,
+     * and can produce a jar with uncompressed entries.
+     *
+     * The runtime jar is checked before anything is written, so the jar file is left untouched if it can't be copied.
+     *
+     * @return false if the runtime jar has a format which is not supported by the writer
+     */
+    private static boolean doWriteToJarWithRawCopy(
+            @NotNull File jarPath, @NotNull OutputFileCollection outputFiles, @Nullable FqName mainClass, boolean includeRuntime,
+            boolean compress
+    ) throws IOException {
+        JarFileWriter.Source stdlib = null;
+        if (includeRuntime) {
+            stdlib = JarFileWriter.Source.read(getStdlibPath());
+            if (stdlib == null) return false;
+        }
+
+        try (JarFileWriter writer = new JarFileWriter(jarPath, compress)) {
+            ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+            createManifest(mainClass).write(manifest);
+            writer.writeEntry(JarFile.MANIFEST_NAME, manifest.toByteArray());
+
+            for (OutputFile outputFile : outputFiles.asList()) {
+                writer.writeEntry(outputFile.getRelativePath(), outputFile.asByteArray());
+            }
+
+            if (stdlib != null) {
+                writer.copyEntries(stdlib, name -> FileUtilRt.extensionEquals(name, "class"));
+            }
+
+            writer.finish();
+        }
+        return true;
+    }
+
     public static void writeToJar(File jarPath, boolean jarRuntime, FqName mainClass, OutputFileCollection outputFiles) {
-        FileOutputStream outputStream = null;
+        writeToJar(jarPath, jarRuntime, true, mainClass, outputFiles);
+    }
+
+    public static void writeToJar(
+            File jarPath, boolean jarRuntime, boolean compress, FqName mainClass, OutputFileCollection outputFiles
+    ) {
+        if (jarRuntime || !compress) {
+            try {
+                if (doWriteToJarWithRawCopy(jarPath, outputFiles, mainClass, jarRuntime, compress)) return;
+            }
+            catch (FileNotFoundException | NoSuchFileException e) {
+                throw new CompileEnvironmentException("Invalid jar path " + jarPath, e);
+            }
+            catch (IOException e) {
+                throw new CompileEnvironmentException("Failed to generate jar file", e);
+            }
+        }
+
+        OutputStream outputStream = null;
         try {
-            outputStream = new FileOutputStream(jarPath);
+            outputStream = new BufferedOutputStream(new FileOutputStream(jarPath), JAR_OUTPUT_BUFFER_SIZE);
             doWriteToJar(outputFiles, outputStream, mainClass, jarRuntime);
             outputStream.close();
         }
@@ -94,12 +157,17 @@ public class CompileEnvironmentUtil {
         }
     }
 
-    private static void writeRuntimeToJar(JarOutputStream stream) throws IOException {
+    @NotNull
+    private static File getStdlibPath() {
         File stdlibPath = PathUtil.getKotlinPathsForCompiler().getStdlibPath();
         if (!stdlibPath.exists()) {
             throw new CompileEnvironmentException("Couldn't find kotlin-stdlib at " + stdlibPath);
         }
-        copyJarImpl(stream, stdlibPath);
+        return stdlibPath;
+    }
+
+    private static void writeRuntimeToJar(JarOutputStream stream) throws IOException {
+        copyJarImpl(stream, getStdlibPath());
     }
 
     private static void copyJarImpl(JarOutputStream stream, File jarPath) throws IOException {
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.*
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+import java.util.zip.ZipException
+
+/**
+ * A minimal jar writer which is able to copy entries of another zip file as is, without inflating and deflating them again:
+ * the compressed data is transferred between the file channels directly.
+ *
+ * If [compress] is false, all entries are stored uncompressed, which is faster to write and to read for local runs.
+ *
+ * The jar is complete only after [finish] is called. If the writer is closed without it, e.g. because of an exception,
+ * the incomplete file is deleted.
+ *
+ * ZIP64 is not supported, so the resulting jar can't have more than 65535 entries or be bigger than 4 Gb.
+ */
+internal class JarFileWriter(private val file: File, private val compress: Boolean) : Closeable {
+    private val channel = FileChannel.open(
+        file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+    )
+    private val entries = ArrayList<Entry>()
+    private val entryNames = HashSet<String>()
+    private val deflater = Deflater(Deflater.DEFAULT_COMPRESSION, true)
+    private val dosTime = dosDateTime(System.currentTimeMillis())
+    private var finished = false
+
+    private class Entry(
+        val name: ByteArray,
+        val method: Int,
+        val dosTime: Int,
+        val crc: Int,
+        val compressedSize: Int,
+        val size: Int,
+        val localHeaderOffset: Int
+    )
+
+    /**
+     * Entries of a zip file which can be copied by [copyEntries]. Reading it before anything is written allows to choose
+     * another way of writing the jar if the format of the zip file is not supported.
+     */
+    class Source private constructor(internal val file: File, internal val entries: List<SourceEntry>) {
+        companion object {
+            // Returns null if the zip file has a format or a compression method which is not supported by the writer
+            @JvmStatic
+            fun read(file: File): Source? {
+                val entries = FileChannel.open(file.toPath(), StandardOpenOption.READ).use { readCentralDirectory(it) } ?: return null
+                if (entries.any { it.method != METHOD_STORED && it.method != METHOD_DEFLATED }) return null
+                return Source(file, entries)
+            }
+        }
+    }
+
+    fun writeEntry(name: String, bytes: ByteArray) {
+        val crc = CRC32().apply { update(bytes) }.value.toInt()
+        if (compress) {
+            writeEntry(name, METHOD_DEFLATED, dosTime, crc, bytes.size, deflate(bytes))
+        } else {
+            writeEntry(name, METHOD_STORED, dosTime, crc, bytes.size, bytes)
+        }
+    }
+
+    private fun writeEntry(name: String, method: Int, entryDosTime: Int, crc: Int, size: Int, data: ByteArray) {
+        val entry = startEntry(name, method, entryDosTime, crc, data.size, size)
+        writeFully(ByteBuffer.wrap(data))
+        entries.add(entry)
+    }
+
+    /**
+     * Copies the entries of the [source] zip file accepted by the [filter], together with their modification times.
+     */
+    fun copyEntries(source: Source, filter: (String) -> Boolean) {
+        FileChannel.open(source.file.toPath(), StandardOpenOption.READ).use { sourceChannel ->
+            val localHeader = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+            for (sourceEntry in source.entries) {
+                if (!filter(sourceEntry.name)) continue
+
+                localHeader.clear()
+                readFully(sourceChannel, localHeader, sourceEntry.localHeaderOffset.toLong())
+                if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) throw ZipException("Invalid local header in ${source.file}")
+                val dataOffset = sourceEntry.localHeaderOffset.toLong() + LOCAL_HEADER_SIZE +
+                        localHeader.getShort(26).toUnsigned() + localHeader.getShort(28).toUnsigned()
+
+                if (compress || sourceEntry.method == METHOD_STORED) {
+                    val entry = startEntry(
+                        sourceEntry.name, sourceEntry.method, sourceEntry.dosTime, sourceEntry.crc,
+                        sourceEntry.compressedSize, sourceEntry.size
+                    )
+                    transferFully(sourceChannel, dataOffset, sourceEntry.compressedSize.toLong())
+                    entries.add(entry)
+                } else {
+                    val compressed = ByteBuffer.allocate(sourceEntry.compressedSize)
+                    readFully(sourceChannel, compressed, dataOffset)
+                    writeEntry(
+                        sourceEntry.name, METHOD_STORED, sourceEntry.dosTime, sourceEntry.crc, sourceEntry.size,
+                        inflate(compressed.array(), sourceEntry.size)
+                    )
+                }
+            }
+        }
+    }
+
+    private fun startEntry(name: String, method: Int, entryDosTime: Int, crc: Int, compressedSize: Int, size: Int): Entry {
+        if (finished) throw IllegalStateException("The jar is already finished")
+        if (entries.size == MAX_ENTRIES) throw ZipException("Too many entries in the jar, ZIP64 format is not supported")
+        if (!entryNames.add(name)) throw ZipException("duplicate entry: $name")
+
+        val nameBytes = name.toByteArray(Charsets.UTF_8)
+        val entry = Entry(nameBytes, method, entryDosTime, crc, compressedSize, size, checkedOffset(channel.position()))
+
+        val header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameBytes.size).order(ByteOrder.LITTLE_ENDIAN)
+        header.putInt(LOCAL_HEADER_SIGNATURE)
+        header.putShort(ZIP_VERSION)
+        header.putShort(FLAG_UTF8)
+        header.putShort(method.toShort())
+        header.putInt(entryDosTime)
+        header.putInt(crc)
+        header.putInt(compressedSize)
+        header.putInt(size)
+        header.putShort(nameBytes.size.toShort())
+        header.putShort(0)
+        header.put(nameBytes)
+        header.flip()
+        writeFully(header)
+        return entry
+    }
+
+    /**
+     * Writes the central directory, which makes the jar complete.
+     */
+    fun finish() {
+        if (finished) return
+
+        val centralDirectoryOffset = checkedOffset(channel.position())
+        for (entry in entries) {
+            val header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + entry.name.size).order(ByteOrder.LITTLE_ENDIAN)
+            header.putInt(CENTRAL_HEADER_SIGNATURE)
+            header.putShort(ZIP_VERSION)
+            header.putShort(ZIP_VERSION)
+            header.putShort(FLAG_UTF8)
+            header.putShort(entry.method.toShort())
+            header.putInt(entry.dosTime)
+            header.putInt(entry.crc)
+            header.putInt(entry.compressedSize)
+            header.putInt(entry.size)
+            header.putShort(entry.name.size.toShort())
+            header.putShort(0) // extra field length
+            header.putShort(0) // comment length
+            header.putShort(0) // disk number
+            header.putShort(0) // internal attributes
+            header.putInt(0) // external attributes
+            header.putInt(entry.localHeaderOffset)
+            header.put(entry.name)
+            header.flip()
+            writeFully(header)
+        }
+
+        val centralDirectorySize = checkedOffset(channel.position()) - centralDirectoryOffset
+
+        val end = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+        end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+        end.putShort(0) // this disk number
+        end.putShort(0) // central directory disk number
+        end.putShort(entries.size.toShort())
+        end.putShort(entries.size.toShort())
+        end.putInt(centralDirectorySize)
+        end.putInt(centralDirectoryOffset)
+        end.putShort(0) // comment length
+        end.flip()
+        writeFully(end)
+        finished = true
+    }
+
+    override fun close() {
+        try {
+            deflater.end()
+        } finally {
+            channel.close()
+            if (!finished) file.delete()
+        }
+    }
+
+    private fun deflate(bytes: ByteArray): ByteArray {
+        deflater.reset()
+        deflater.setInput(bytes)
+        deflater.finish()
+        val result = ByteArrayOutputStream(bytes.size / 2 + 64)
+        val buffer = ByteArray(8192)
+        while (!deflater.finished()) {
+            val count = deflater.deflate(buffer)
+            result.write(buffer, 0, count)
+        }
+        return result.toByteArray()
+    }
+
+    private fun inflate(compressed: ByteArray, size: Int): ByteArray {
+        val inflater = Inflater(true)
+        try {
+            // An extra dummy byte is required by the inflater in the 'nowrap' mode
+            inflater.setInput(compressed + 0.toByte())
+            val result = ByteArray(size)
+            var offset = 0
+            while (offset < size) {
+                val count = inflater.inflate(result, offset, size - offset)
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) break
+                offset += count
+            }
+            if (offset != size) throw ZipException("Unexpected size of an inflated entry: $offset instead of $size")
+            return result
+        } finally {
+            inflater.end()
+        }
+    }
+
+    private fun writeFully(buffer: ByteBuffer) {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer)
+        }
+    }
+
+    private fun transferFully(source: FileChannel, position: Long, count: Long) {
+        var transferred = 0L
+        while (transferred < count) {
+            val result = source.transferTo(position + transferred, count - transferred, channel)
+            if (result <= 0) throw ZipException("Unexpected end of the source zip file")
+            transferred += result
+        }
+    }
+
+    internal class SourceEntry(
+        val name: String,
+        val method: Int,
+        val dosTime: Int,
+        val crc: Int,
+        val compressedSize: Int,
+        val size: Int,
+        val localHeaderOffset: Int
+    )
+
+    companion object {
+        private const val LOCAL_HEADER_SIGNATURE = 0x04034b50
+        private const val CENTRAL_HEADER_SIGNATURE = 0x02014b50
+        private const val END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50
+
+        private const val LOCAL_HEADER_SIZE = 30
+        private const val CENTRAL_HEADER_SIZE = 46
+        private const val END_OF_CENTRAL_DIRECTORY_SIZE = 22
+        private const val MAX_COMMENT_SIZE = 0xFFFF
+
+        private const val ZIP_VERSION: Short = 20
+        private const val FLAG_UTF8: Short = 0x800
+        private const val FLAG_ENCRYPTED = 0x1
+
+        private const val METHOD_STORED = 0
+        private const val METHOD_DEFLATED = 8
+
+        private const val MAX_ENTRIES = 0xFFFF
+        private const val MAX_OFFSET = 0xFFFFFFFFL
+
+        private fun Short.toUnsigned(): Int = toInt() and 0xFFFF
+
+        private fun checkedOffset(position: Long): Int {
+            if (position > MAX_OFFSET) throw ZipException("The jar is too big, ZIP64 format is not supported")
+            return position.toInt()
+        }
+
+        private fun readFully(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+            var offset = 0
+            while (buffer.hasRemaining()) {
+                val count = channel.read(buffer, position + offset)
+                if (count < 0) throw ZipException("Unexpected end of the zip file")
+                offset += count
+            }
+            buffer.flip()
+        }
+
+        // Returns null if the format of the zip file is not supported (ZIP64, multi-volume or encrypted archives)
+        private fun readCentralDirectory(channel: FileChannel): List<SourceEntry>? {
+            val fileSize = channel.size()
+            val tailSize = minOf(fileSize, (END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE).toLong()).toInt()
+            val tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN)
+            readFully(channel, tail, fileSize - tailSize)
+
+            var end = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE
+            while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                end--
+            }
+            if (end < 0) return null
+
+            val diskNumber = tail.getShort(end + 4).toUnsigned()
+            val entryCount = tail.getShort(end + 10).toUnsigned()
+            val centralDirectorySize = tail.getInt(end + 12).toLong() and MAX_OFFSET
+            val centralDirectoryOffset = tail.getInt(end + 16).toLong() and MAX_OFFSET
+            if (diskNumber != 0 || entryCount == MAX_ENTRIES || centralDirectoryOffset == MAX_OFFSET) return null
+
+            val directory = ByteBuffer.allocate(centralDirectorySize.toInt()).order(ByteOrder.LITTLE_ENDIAN)
+            readFully(channel, directory, centralDirectoryOffset)
+
+            val result = ArrayList<SourceEntry>(entryCount)
+            var position = 0
+            repeat(entryCount) {
+                if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) return null
+                val flags = directory.getShort(position + 8).toUnsigned()
+                if ((flags and FLAG_ENCRYPTED) != 0) return null
+                val nameLength = directory.getShort(position + 28).toUnsigned()
+                val extraLength = directory.getShort(position + 30).toUnsigned()
+                val commentLength = directory.getShort(position + 32).toUnsigned()
+                val compressedSize = directory.getInt(position + 20)
+                val size = directory.getInt(position + 24)
+                val localHeaderOffset = directory.getInt(position + 42)
+                if (compressedSize == -1 || size == -1 || localHeaderOffset == -1) return null
+
+                val nameBytes = ByteArray(nameLength)
+                directory.position(position + CENTRAL_HEADER_SIZE)
+                directory.get(nameBytes)
+                result.add(
+                    SourceEntry(
+                        String(nameBytes, Charsets.UTF_8),
+                        directory.getShort(position + 10).toUnsigned(),
+                        directory.getInt(position + 12),
+                        directory.getInt(position + 16),
+                        compressedSize, size, localHeaderOffset
+                    )
+                )
+                position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength
+            }
+            return result
+        }
+
+        private fun dosDateTime(millis: Long): Int {
+            val calendar = Calendar.getInstance().apply { timeInMillis = millis }
+            val year = calendar.get(Calendar.YEAR)
+            if (year < 1980) return (1 shl 21) or (1 shl 16)
+            return ((year - 1980) shl 25) or
+                    ((calendar.get(Calendar.MONTH) + 1) shl 21) or
+                    (calendar.get(Calendar.DAY_OF_MONTH) shl 16) or
+                    (calendar.get(Calendar.HOUR_OF_DAY) shl 11) or
+                    (calendar.get(Calendar.MINUTE) shl 5) or
+                    (calendar.get(Calendar.SECOND) shr 1)
+        }
+    }
+}
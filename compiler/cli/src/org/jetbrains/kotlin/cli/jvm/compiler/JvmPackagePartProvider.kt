@@ -37,9 +37,14 @@ import java.io.ByteArrayOutputStream
 import java.io.EOFException
 import java.io.PrintStream
 
+/**
+ * If [useSharedModuleMappings] is true, the module mappings of the libraries are taken from and stored to [SharedModuleMappingCache],
+ * so that they are not loaded again by the next compilation in the same process.
+ */
 class JvmPackagePartProvider(
     languageVersionSettings: LanguageVersionSettings,
-    private val scope: GlobalSearchScope
+    private val scope: GlobalSearchScope,
+    private val useSharedModuleMappings: Boolean = false
 ) : PackagePartProvider, MetadataPartProvider {
     private data class ModuleMappingInfo(val root: VirtualFile, val mapping: ModuleMapping, val name: String)
 
@@ -73,7 +78,8 @@ class JvmPackagePartProvider(
         val result = mutableMapOf<VirtualFile, PackageParts>()
         for ((root, mapping) in loadedModules) {
             val newParts = mapping.findPackageParts(packageFqName) ?: continue
-            result[root]?.let { parts -> parts += newParts } ?: result.put(root, newParts)
+            // the parts are copied since the mappings can be shared with other compilations
+            result.getOrPut(root) { PackageParts(newParts.packageFqName) } += newParts
         }
         return result
     }
@@ -93,10 +99,20 @@ class JvmPackagePartProvider(
             for (moduleFile in metaInf.children) {
                 if (!moduleFile.name.endsWith(ModuleMapping.MAPPING_FILE_EXT)) continue
 
+                val moduleFileContents = moduleFile.contentsToByteArray()
+                val sharedMapping =
+                    if (useSharedModuleMappings) SharedModuleMappingCache.get(moduleFileContents, deserializationConfiguration) else null
+                if (sharedMapping != null) {
+                    loadedModules.add(ModuleMappingInfo(root, sharedMapping, moduleFile.nameWithoutExtension))
+                    continue
+                }
+
                 try {
+                    var hasErrors = false
                     val mapping = ModuleMapping.loadModuleMapping(
-                        moduleFile.contentsToByteArray(), moduleFile.toString(), deserializationConfiguration
+                        moduleFileContents, moduleFile.toString(), deserializationConfiguration
                     ) { incompatibleVersion ->
+                        hasErrors = true
                         messageCollector.report(
                             ERROR,
                             "Module was compiled with an incompatible version of Kotlin. The binary version of its metadata is " +
@@ -105,6 +121,9 @@ class JvmPackagePartProvider(
                         )
                     }
                     loadedModules.add(ModuleMappingInfo(root, mapping, moduleFile.nameWithoutExtension))
+                    if (useSharedModuleMappings && !hasErrors) {
+                        SharedModuleMappingCache.put(moduleFileContents, deserializationConfiguration, mapping)
+                    }
                 } catch (e: EOFException) {
                     messageCollector.report(
                         ERROR, "Error occurred when reading the module: ${e.message}", CompilerMessageLocation.create(moduleFile.path)
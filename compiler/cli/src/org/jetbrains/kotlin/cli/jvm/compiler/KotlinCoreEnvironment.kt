@@ -299,7 +299,9 @@ class KotlinCoreEnvironment private constructor(
     }
 
     fun createPackagePartProvider(scope: GlobalSearchScope): JvmPackagePartProvider {
-        return JvmPackagePartProvider(configuration.languageVersionSettings, scope).apply {
+        // The compile daemon keeps the environment alive between compilations, so library module mappings can be kept as well
+        val useSharedModuleMappings = System.getProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY).toBooleanLenient() == true
+        return JvmPackagePartProvider(configuration.languageVersionSettings, scope, useSharedModuleMappings).apply {
             addRoots(initialRoots, configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY))
             packagePartProviders += this
             (ModuleAnnotationsResolver.getInstance(project) as CliModuleAnnotationsResolver).addPackagePartProvider(this)
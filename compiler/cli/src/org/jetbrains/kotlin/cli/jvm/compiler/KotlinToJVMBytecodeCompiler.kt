@@ -42,6 +42,7 @@ import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.OUTPUT
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.WARNING
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector
 import org.jetbrains.kotlin.cli.common.messages.OutputMessageUtil
+import org.jetbrains.kotlin.cli.common.output.OutputFileWriter
 import org.jetbrains.kotlin.cli.common.output.writeAll
 import org.jetbrains.kotlin.cli.jvm.config.*
 import org.jetbrains.kotlin.codegen.*
@@ -75,6 +76,7 @@ import org.jetbrains.kotlin.resolve.jvm.KotlinJavaPsiFacade
 import org.jetbrains.kotlin.resolve.jvm.platform.JvmPlatformAnalyzerServices
 import org.jetbrains.kotlin.utils.newLinkedHashMapWithExpectedSize
 import org.jetbrains.kotlin.utils.tryConstructClassFromStringArgs
+import java.io.Closeable
 import java.io.File
 import java.lang.reflect.InvocationTargetException
 import java.net.URLClassLoader
@@ -83,14 +85,16 @@ object KotlinToJVMBytecodeCompiler {
     private fun writeOutput(
         configuration: CompilerConfiguration,
         outputFiles: OutputFileCollection,
-        mainClassProvider: MainClassProvider?
+        mainClassProvider: MainClassProvider?,
+        outputFileWriter: OutputFileWriter? = null
     ) {
         val reportOutputFiles = configuration.getBoolean(CommonConfigurationKeys.REPORT_OUTPUT_FILES)
         val jarPath = configuration.get(JVMConfigurationKeys.OUTPUT_JAR)
         val messageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE)
         if (jarPath != null) {
             val includeRuntime = configuration.get(JVMConfigurationKeys.INCLUDE_RUNTIME, false)
-            CompileEnvironmentUtil.writeToJar(jarPath, includeRuntime, mainClassProvider?.mainClassFqName, outputFiles)
+            val compress = !configuration.getBoolean(JVMConfigurationKeys.NO_JAR_COMPRESSION)
+            CompileEnvironmentUtil.writeToJar(jarPath, includeRuntime, compress, mainClassProvider?.mainClassFqName, outputFiles)
             if (reportOutputFiles) {
                 val message = OutputMessageUtil.formatOutputMessage(outputFiles.asList().flatMap { it.sourceFiles }.distinct(), jarPath)
                 messageCollector.report(OUTPUT, message)
@@ -99,20 +103,37 @@ object KotlinToJVMBytecodeCompiler {
         }
 
         val outputDir = configuration.get(JVMConfigurationKeys.OUTPUT_DIRECTORY) ?: File(".")
-        outputFiles.writeAll(outputDir, messageCollector, reportOutputFiles)
+        if (outputFileWriter != null) {
+            outputFiles.writeAll(outputDir, messageCollector, reportOutputFiles, outputFileWriter)
+        } else {
+            val skipUnchanged = configuration.getBoolean(JVMConfigurationKeys.SKIP_UNCHANGED_OUTPUT)
+            outputFiles.writeAll(outputDir, messageCollector, reportOutputFiles, skipUnchanged)
+        }
     }
 
-    private fun createOutputFilesFlushingCallbackIfPossible(configuration: CompilerConfiguration): GenerationStateEventCallback {
+    private fun createOutputFilesFlushingCallbackIfPossible(configuration: CompilerConfiguration): OutputFilesFlushingCallback? {
         if (configuration.get(JVMConfigurationKeys.OUTPUT_DIRECTORY) == null) {
-            return GenerationStateEventCallback.DO_NOTHING
+            return null
         }
-        return GenerationStateEventCallback { state ->
+        return OutputFilesFlushingCallback(configuration)
+    }
+
+    // Writes the classes of each source file as soon as it's generated, on the writer threads, while the code generation proceeds.
+    // Closing the callback waits until all flushed classes are written.
+    private class OutputFilesFlushingCallback(private val configuration: CompilerConfiguration) : GenerationStateEventCallback, Closeable {
+        private val writer = OutputFileWriter(skipUnchanged = configuration.getBoolean(JVMConfigurationKeys.SKIP_UNCHANGED_OUTPUT))
+
+        override fun invoke(state: GenerationState) {
             val currentOutput = SimpleOutputFileCollection(state.factory.currentOutput)
-            writeOutput(configuration, currentOutput, null)
+            writeOutput(configuration, currentOutput, null, writer)
             if (!configuration.get(JVMConfigurationKeys.RETAIN_OUTPUT_IN_MEMORY, false)) {
                 state.factory.releaseGeneratedOutput()
             }
         }
+
+        override fun close() {
+            writer.close()
+        }
     }
 
     private fun Module.getSourceFiles(
@@ -344,6 +365,7 @@ object KotlinToJVMBytecodeCompiler {
             val dummyBindingContext = NoScopeRecordCliBindingTrace().bindingContext
 
             val codegenFactory = JvmIrCodegenFactory(moduleConfiguration.get(CLIConfigurationKeys.PHASE_CONFIG) ?: PhaseConfig(jvmPhases))
+            val flushingCallback = createOutputFilesFlushingCallbackIfPossible(moduleConfiguration)
             val generationState = GenerationState.Builder(
                 environment.project, ClassBuilderFactories.BINARIES,
                 moduleFragment.descriptor, dummyBindingContext, ktFiles,
@@ -353,19 +375,21 @@ object KotlinToJVMBytecodeCompiler {
             ).withModule(
                 module
             ).onIndependentPartCompilationEnd(
-                createOutputFilesFlushingCallbackIfPossible(moduleConfiguration)
+                flushingCallback ?: GenerationStateEventCallback.DO_NOTHING
             ).build()
 
             ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
             val performanceManager = environment.configuration.get(CLIConfigurationKeys.PERF_MANAGER)
             performanceManager?.notifyGenerationStarted()
-            generationState.beforeCompile()
-            codegenFactory.generateModuleInFrontendIRMode(
-                generationState, moduleFragment, CompilationErrorHandler.THROW_EXCEPTION, symbolTable, sourceManager
-            )
-            CodegenFactory.doCheckCancelled(generationState)
-            generationState.factory.done()
+            flushingCallback.use {
+                generationState.beforeCompile()
+                codegenFactory.generateModuleInFrontendIRMode(
+                    generationState, moduleFragment, CompilationErrorHandler.THROW_EXCEPTION, symbolTable, sourceManager
+                )
+                CodegenFactory.doCheckCancelled(generationState)
+                generationState.factory.done()
+            }
             performanceManager?.notifyGenerationFinished(
                 ktFiles.size,
                 environment.countLinesOfCode(ktFiles),
@@ -609,6 +633,7 @@ object KotlinToJVMBytecodeCompiler {
     ): GenerationState {
         val isIR = configuration.getBoolean(JVMConfigurationKeys.IR) ||
                 configuration.getBoolean(CommonConfigurationKeys.USE_FIR)
+        val flushingCallback = createOutputFilesFlushingCallbackIfPossible(configuration)
         val generationState = GenerationState.Builder(
             environment.project,
             ClassBuilderFactories.BINARIES,
@@ -623,7 +648,7 @@ object KotlinToJVMBytecodeCompiler {
                 ) else DefaultCodegenFactory
             )
             .withModule(module)
-            .onIndependentPartCompilationEnd(createOutputFilesFlushingCallbackIfPossible(configuration))
+            .onIndependentPartCompilationEnd(flushingCallback ?: GenerationStateEventCallback.DO_NOTHING)
             .build()
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
@@ -631,13 +656,17 @@ object KotlinToJVMBytecodeCompiler {
         val performanceManager = environment.configuration.get(CLIConfigurationKeys.PERF_MANAGER)
         performanceManager?.notifyGenerationStarted()
 
-        KotlinCodegenFacade.compileCorrectFiles(generationState, CompilationErrorHandler.THROW_EXCEPTION)
+        flushingCallback.use {
+            KotlinCodegenFacade.compileCorrectFiles(generationState, CompilationErrorHandler.THROW_EXCEPTION)
+        }
 
         performanceManager?.notifyGenerationFinished(
             sourceFiles.size,
             environment.countLinesOfCode(sourceFiles),
             additionalDescription = if (module != null) "target " + module.getModuleName() + "-" + module.getModuleType() + " " else ""
         )
+        performanceManager?.notifyInlineCacheStatistics(generationState.inlineCache)
+        performanceManager?.notifyMethodTransformerStatistics(generationState.methodTransformerStatistics)
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
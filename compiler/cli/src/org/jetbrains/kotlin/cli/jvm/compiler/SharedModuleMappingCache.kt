@@ -0,0 +1,55 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import org.jetbrains.kotlin.metadata.jvm.deserialization.ModuleMapping
+import org.jetbrains.kotlin.serialization.deserialization.DeserializationConfiguration
+import org.jetbrains.kotlin.utils.WeightedLruCache
+import java.util.*
+
+/**
+ * Module mappings (.kotlin_module files) of the libraries, which are kept between compilations in a long-living process,
+ * such as the compile daemon, so that the package parts of the same classpath are not loaded again by every compilation.
+ * Entries are keyed by the contents of the module file, so that a changed library is read again regardless of timestamps.
+ */
+object SharedModuleMappingCache {
+    private const val SIZE_IN_BYTES = 16L * 1024 * 1024
+
+    private class Key(
+        val bytes: ByteArray,
+        val skipMetadataVersionCheck: Boolean,
+        val isJvmPackageNameSupported: Boolean
+    ) {
+        private val hashCode = Objects.hash(Arrays.hashCode(bytes), skipMetadataVersionCheck, isJvmPackageNameSupported)
+
+        override fun equals(other: Any?): Boolean =
+            other is Key && hashCode == other.hashCode && skipMetadataVersionCheck == other.skipMetadataVersionCheck &&
+                    isJvmPackageNameSupported == other.isJvmPackageNameSupported && Arrays.equals(bytes, other.bytes)
+
+        override fun hashCode(): Int = hashCode
+    }
+
+    // The key keeps the contents of the module file, so the entry takes about twice as much
+    private class Entry(val mapping: ModuleMapping, val sizeInBytes: Int)
+
+    private val mappings = WeightedLruCache<Key, Entry>(SIZE_IN_BYTES) { it.sizeInBytes.toLong() }
+
+    fun get(moduleFileContents: ByteArray, configuration: DeserializationConfiguration): ModuleMapping? =
+        mappings.get(keyOf(moduleFileContents, configuration))?.mapping
+
+    fun put(moduleFileContents: ByteArray, configuration: DeserializationConfiguration, mapping: ModuleMapping) {
+        mappings.put(keyOf(moduleFileContents, configuration), Entry(mapping, 2 * moduleFileContents.size))
+    }
+
+    fun clear() {
+        mappings.clear()
+    }
+
+    private fun keyOf(moduleFileContents: ByteArray, configuration: DeserializationConfiguration): Key =
+        Key(moduleFileContents, configuration.skipMetadataVersionCheck, configuration.isJvmPackageNameSupported)
+
+    override fun toString(): String = mappings.toString()
+}
@@ -6,9 +6,11 @@
 package org.jetbrains.kotlin.cli.jvm
 
 import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
+import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY
 import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
 import org.jetbrains.kotlin.cli.common.getLibraryFromHome
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.*
+import org.jetbrains.kotlin.cli.common.toBooleanLenient
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
 import org.jetbrains.kotlin.cli.jvm.config.JvmClasspathRoot
 import org.jetbrains.kotlin.cli.jvm.config.JvmModulePathRoot
@@ -152,6 +154,37 @@ fun CompilerConfiguration.configureAdvancedJvmOptions(arguments: K2JVMCompilerAr
         arguments.noExceptionOnExplicitEqualsForBoxedNull
     )
     put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, arguments.noOptimize)
+    put(JVMConfigurationKeys.NO_JAR_COMPRESSION, arguments.noJarCompression)
+
+    arguments.inlineCacheSize?.let { value ->
+        val size = value.toIntOrNull()
+        if (size == null || size < 0) {
+            getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(
+                ERROR,
+                "Inline cache size should be a non-negative number of megabytes: $value"
+            )
+        } else {
+            put(JVMConfigurationKeys.INLINE_CACHE_SIZE, size)
+        }
+    }
+
+    // The compile daemon keeps the environment alive between compilations, so inline function bodies can be kept as well
+    put(
+        JVMConfigurationKeys.SHARED_INLINE_CACHE,
+        System.getProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY).toBooleanLenient() == true
+    )
+
+    arguments.backendThreads?.let { value ->
+        val threads = value.toIntOrNull()
+        if (threads == null || threads < 1) {
+            getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(
+                ERROR,
+                "Number of backend threads should be a positive integer: $value"
+            )
+        } else {
+            put(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, threads)
+        }
+    }
 
     if (!JVMConstructorCallNormalizationMode.isSupportedValue(arguments.constructorCallNormalizationMode)) {
         getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(
@@ -186,6 +219,7 @@ fun CompilerConfiguration.configureAdvancedJvmOptions(arguments: K2JVMCompilerAr
 
     put(JVMConfigurationKeys.USE_TYPE_TABLE, arguments.useTypeTable)
     put(JVMConfigurationKeys.SKIP_RUNTIME_VERSION_CHECK, arguments.skipRuntimeVersionCheck)
+    put(JVMConfigurationKeys.SKIP_UNCHANGED_OUTPUT, arguments.skipUnchangedOutput)
     put(JVMConfigurationKeys.USE_FAST_CLASS_FILES_READING, !arguments.useOldClassFilesReading)
 
     if (arguments.useOldClassFilesReading) {
@@ -96,6 +96,14 @@ open class CompilerCallbackServicesFacadeServer(
         }
     }
 
+    override fun lookupTracker_recordCompact(lookups: CompactLookups) {
+        val lookupTracker = lookupTracker!!
+
+        lookups.forEach { filePath, position, scopeFqName, scopeKind, name ->
+            lookupTracker.record(filePath, position, scopeFqName, scopeKind, name)
+        }
+    }
+
     private val lookupTracker_isDoNothing: Boolean = lookupTracker === LookupTracker.DO_NOTHING
 
     override fun lookupTracker_isDoNothing(): Boolean = lookupTracker_isDoNothing
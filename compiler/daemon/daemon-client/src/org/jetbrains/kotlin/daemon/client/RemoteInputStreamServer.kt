@@ -31,11 +31,17 @@ class RemoteInputStreamServer(val `in`: InputStream, port: Int = SOCKET_ANY_FREE
         `in`.close()
     }
 
-    override fun read(length: Int): ByteArray {
-        val buf = ByteArray(length)
-        val readBytes = `in`.read(buf, 0, length)
-        return if (readBytes == length) buf
-               else buf.copyOfRange(0, readBytes)
+    override fun read(length: Int): ByteArray =
+            readChunk(length) ?: ByteArray(0)
+
+    override fun readChunk(maxLength: Int): ByteArray? {
+        val buf = ByteArray(maxLength)
+        val readBytes = `in`.read(buf, 0, maxLength)
+        return when (readBytes) {
+            -1 -> null
+            maxLength -> buf
+            else -> buf.copyOfRange(0, readBytes)
+        }
     }
 
     override fun read(): Int =
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon.common
+
+import org.jetbrains.kotlin.incremental.components.LookupInfo
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
+import java.io.Serializable
+
+/**
+ * A chunk of lookups in a compact form for passing them between processes. Every file path, scope and name
+ * is stored once in [strings], and lookups refer to them by indices.
+ */
+class CompactLookups private constructor(
+    private val strings: Array<String>,
+    // File path, scope and name indices in [strings] and the scope kind ordinal of every lookup
+    private val lookups: IntArray,
+    // Line and column of every lookup, or null if positions are not tracked
+    private val positions: IntArray?
+) : Serializable {
+    val size: Int
+        get() = lookups.size / FIELDS
+
+    inline fun forEach(action: (filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) -> Unit) {
+        for (i in 0 until size) {
+            action(filePathAt(i), positionAt(i), scopeFqNameAt(i), scopeKindAt(i), nameAt(i))
+        }
+    }
+
+    fun toLookupInfos(): List<LookupInfo> {
+        val result = ArrayList<LookupInfo>(size)
+        forEach { filePath, position, scopeFqName, scopeKind, name ->
+            result.add(LookupInfo(filePath, position, scopeFqName, scopeKind, name))
+        }
+        return result
+    }
+
+    fun filePathAt(index: Int): String = strings[lookups[index * FIELDS]]
+    fun scopeFqNameAt(index: Int): String = strings[lookups[index * FIELDS + 1]]
+    fun nameAt(index: Int): String = strings[lookups[index * FIELDS + 2]]
+    fun scopeKindAt(index: Int): ScopeKind = SCOPE_KINDS[lookups[index * FIELDS + 3]]
+
+    fun positionAt(index: Int): Position =
+        if (positions == null) Position.NO_POSITION else Position(positions[index * 2], positions[index * 2 + 1])
+
+    /**
+     * Collects lookups, skipping duplicates. Positions are only stored if [requiresPosition] is true.
+     */
+    class Builder(private val requiresPosition: Boolean) {
+        private val stringIndices = HashMap<String, Int>()
+        private val strings = ArrayList<String>()
+        private val recorded = HashSet<LookupKey>()
+        private var lookups = IntArray(INITIAL_CAPACITY * FIELDS)
+        private var positions = if (requiresPosition) IntArray(INITIAL_CAPACITY * 2) else null
+
+        val size: Int
+            get() = recorded.size
+
+        fun add(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
+            val line = if (requiresPosition) position.line else -1
+            val column = if (requiresPosition) position.column else -1
+            val key = LookupKey(indexOf(filePath), indexOf(scopeFqName), indexOf(name), scopeKind.ordinal, line, column)
+            if (!recorded.add(key)) return
+
+            val index = recorded.size - 1
+            if (lookups.size < (index + 1) * FIELDS) {
+                lookups = lookups.copyOf(lookups.size * 2)
+                positions = positions?.let { it.copyOf(it.size * 2) }
+            }
+
+            lookups[index * FIELDS] = key.filePath
+            lookups[index * FIELDS + 1] = key.scopeFqName
+            lookups[index * FIELDS + 2] = key.name
+            lookups[index * FIELDS + 3] = key.scopeKind
+            positions?.let {
+                it[index * 2] = line
+                it[index * 2 + 1] = column
+            }
+        }
+
+        fun build(): CompactLookups =
+            CompactLookups(strings.toTypedArray(), lookups.copyOf(size * FIELDS), positions?.copyOf(size * 2))
+
+        private fun indexOf(string: String): Int =
+            stringIndices.getOrPut(string) {
+                strings.add(string)
+                strings.size - 1
+            }
+
+        private data class LookupKey(
+            val filePath: Int, val scopeFqName: Int, val name: Int, val scopeKind: Int, val line: Int, val column: Int
+        )
+
+        private companion object {
+            const val INITIAL_CAPACITY = 1024
+        }
+    }
+
+    companion object {
+        private const val FIELDS = 4
+        private val SCOPE_KINDS = ScopeKind.values()
+
+        // just a random number, but should never be changed to avoid deserialization problems
+        private val serialVersionUID: Long = 1540386914252073563L
+    }
+}
@@ -29,4 +29,11 @@ interface RemoteInputStream : Remote {
 
     @Throws(RemoteException::class)
     fun read(): Int
+
+    /**
+     * Reads up to [maxLength] bytes, blocking only until some input is available. Returns null at the end of the stream.
+     * Allows the client to read ahead in large chunks instead of making a remote call per read.
+     */
+    @Throws(RemoteException::class)
+    fun readChunk(maxLength: Int): ByteArray?
 }
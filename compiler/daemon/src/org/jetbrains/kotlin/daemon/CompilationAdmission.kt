@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.daemon.common.usedMemory
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import java.util.logging.Logger
+import kotlin.concurrent.withLock
+
+const val COMPILE_DAEMON_MAX_PARALLEL_COMPILATIONS_PROPERTY = "kotlin.daemon.max.parallel.compilations"
+const val COMPILE_DAEMON_ADMISSION_MEMORY_THRESHOLD_PROPERTY = "kotlin.daemon.admission.memory.threshold"
+
+/**
+ * Decides when a compilation may start, so that compilations from several clients run in parallel without exhausting the daemon.
+ * At most [maxParallelCompilations] compilations run at the same time. Additionally, a compilation doesn't start while others are
+ * running and the used heap exceeds [memoryThreshold] of the maximal heap, unless it has waited for [maxMemoryWaitMs] already,
+ * so that a daemon which keeps a lot of memory for some other reason still makes progress.
+ * The used heap is measured after the latest garbage collection, so that the garbage which is not collected yet is not counted.
+ */
+class CompilationAdmission(
+    val maxParallelCompilations: Int = DEFAULT_MAX_PARALLEL_COMPILATIONS,
+    private val memoryThreshold: Double = DEFAULT_MEMORY_THRESHOLD,
+    private val maxMemoryWaitMs: Long = DEFAULT_MAX_MEMORY_WAIT_MS,
+    private val maxMemory: Long = Runtime.getRuntime().maxMemory(),
+    private val usedMemory: () -> Long = ::usedMemoryAfterLastGC
+) {
+    private val lock = ReentrantLock()
+    private val compilationFinished = lock.newCondition()
+    private var runningCompilations = 0
+
+    private val log by lazy { Logger.getLogger("compiler") }
+
+    val running: Int get() = lock.withLock { runningCompilations }
+
+    fun acquire() {
+        lock.withLock {
+            val memoryWaitDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxMemoryWaitMs)
+            while (true) {
+                when {
+                    runningCompilations >= maxParallelCompilations -> {
+                        log.fine("Waiting for one of $runningCompilations running compilations to finish")
+                        compilationFinished.await()
+                    }
+                    runningCompilations > 0 && isMemoryLow() && System.nanoTime() < memoryWaitDeadline -> {
+                        log.fine("Waiting for memory, $runningCompilations compilations are running")
+                        compilationFinished.await(MEMORY_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)
+                    }
+                    else -> {
+                        runningCompilations++
+                        return
+                    }
+                }
+            }
+        }
+    }
+
+    fun release() {
+        lock.withLock {
+            runningCompilations--
+            compilationFinished.signalAll()
+        }
+    }
+
+    /**
+     * Runs [action] only if no compilation is running, compilations which are started meanwhile wait until it is finished.
+     * Returns false if the [action] was not run.
+     */
+    fun runIfIdle(action: () -> Unit): Boolean {
+        lock.withLock {
+            if (runningCompilations > 0) return false
+            action()
+            return true
+        }
+    }
+
+    inline fun <R> admit(body: () -> R): R {
+        acquire()
+        try {
+            return body()
+        } finally {
+            release()
+        }
+    }
+
+    fun isMemoryLow(): Boolean = usedMemory() > maxMemory * memoryThreshold
+
+    companion object {
+        val DEFAULT_MAX_PARALLEL_COMPILATIONS =
+            System.getProperty(COMPILE_DAEMON_MAX_PARALLEL_COMPILATIONS_PROPERTY)?.toIntOrNull()?.takeIf { it > 0 }
+                ?: Runtime.getRuntime().availableProcessors()
+
+        val DEFAULT_MEMORY_THRESHOLD =
+            System.getProperty(COMPILE_DAEMON_ADMISSION_MEMORY_THRESHOLD_PROPERTY)?.toDoubleOrNull() ?: 0.75
+
+        const val DEFAULT_MAX_MEMORY_WAIT_MS = 30000L
+        private const val MEMORY_CHECK_INTERVAL_MS = 500L
+
+        // the sum of the heap pools usages after their latest collections, pools which were not collected yet are reported as empty;
+        // falls back to the current usage if the JVM doesn't report the usage after collection for some pool
+        private fun usedMemoryAfterLastGC(): Long {
+            val heapPools = ManagementFactory.getMemoryPoolMXBeans().filter { it.type == MemoryType.HEAP }
+            val usages = heapPools.mapNotNull { it.collectionUsage }
+            if (usages.isEmpty() || usages.size < heapPools.size) return usedMemory(withGC = false)
+            return usages.fold(0L) { used, usage -> used + usage.used }
+        }
+    }
+}
@@ -38,7 +38,9 @@ import org.jetbrains.kotlin.cli.common.repl.ReplEvalResult
 import org.jetbrains.kotlin.cli.js.K2JSCompiler
 import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.compiler.SharedModuleMappingCache
 import org.jetbrains.kotlin.cli.metadata.K2MetadataCompiler
+import org.jetbrains.kotlin.codegen.inline.SharedInlineCache
 import org.jetbrains.kotlin.config.Services
 import org.jetbrains.kotlin.daemon.common.*
 import org.jetbrains.kotlin.daemon.report.*
@@ -54,7 +56,6 @@ import org.jetbrains.kotlin.incremental.parsing.classesFqNames
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCompilationComponents
 import org.jetbrains.kotlin.modules.Module
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
-import java.io.BufferedOutputStream
 import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.PrintStream
@@ -127,6 +128,8 @@ abstract class CompileServiceImplBase(
 
     protected val compilationsCounter = AtomicInteger(0)
 
+    protected val compilationAdmission = CompilationAdmission()
+
     protected val classpathWatcher = LazyClasspathWatcher(compilerId.compilerClasspath)
 
     enum class Aliveness {
@@ -377,19 +380,21 @@ abstract class CompileServiceImplBase(
         body: (EventManager, Profiler) -> ExitCode
     ): CompileService.CallResult<Int> = run {
         log.fine("alive!")
-        withValidClientOrSessionProxy(sessionId) {
-            tracer?.before("compile")
-            val rpcProfiler = if (daemonOptions.reportPerf) WallAndThreadTotalProfiler() else DummyProfiler()
-            val eventManager = EventManagerImpl()
-            try {
-                log.fine("trying get exitCode")
-                val exitCode = checkedCompile(daemonMessageReporter, rpcProfiler) {
-                    body(eventManager, rpcProfiler).code
+        compilationAdmission.admit {
+            withValidClientOrSessionProxy(sessionId) {
+                tracer?.before("compile")
+                val rpcProfiler = if (daemonOptions.reportPerf) WallAndThreadTotalProfiler() else DummyProfiler()
+                val eventManager = EventManagerImpl()
+                try {
+                    log.fine("trying get exitCode")
+                    val exitCode = checkedCompile(daemonMessageReporter, rpcProfiler) {
+                        body(eventManager, rpcProfiler).code
+                    }
+                    CompileService.CallResult.Good(exitCode)
+                } finally {
+                    eventManager.fireCompilationFinished()
+                    tracer?.after("compile")
                 }
-                CompileService.CallResult.Good(exitCode)
-            } finally {
-                eventManager.fireCompilationFinished()
-                tracer?.after("compile")
             }
         }
     }
@@ -640,6 +645,9 @@ class CompileServiceImpl(
 
     private val rwlock = ReentrantReadWriteLock()
 
+    private val jarCacheClearRequested = AtomicBoolean(false)
+
+
     // RMI-exposed API
 
     override fun getDaemonInfo(): CompileService.CallResult<String> = ifAlive(minAliveness = Aliveness.Dying) {
@@ -675,13 +683,15 @@ class CompileServiceImpl(
     }
 
 
-    override fun releaseCompileSession(sessionId: Int) = ifAlive(minAliveness = Aliveness.LastSession) {
-        state.sessions.remove(sessionId)
-        log.info("cleaning after session $sessionId")
-        rwlock.write {
-            clearJarCache()
+    override fun releaseCompileSession(sessionId: Int): CompileService.CallResult<Nothing> {
+        val result = ifAlive(minAliveness = Aliveness.LastSession) {
+            state.sessions.remove(sessionId)
+            log.info("cleaning after session $sessionId")
+            jarCacheClearRequested.set(true)
+            postReleaseCompileSession()
         }
-        postReleaseCompileSession()
+        clearJarCacheIfIdle()
+        return result
     }
 
     override fun checkCompilerId(expectedCompilerId: CompilerId): Boolean =
@@ -784,7 +794,9 @@ class CompileServiceImpl(
         createReporter = ::DaemonMessageReporter,
         createServices = this::createCompileServices,
         getICReporter = { a, b, c -> getICReporter(a, b!!, c)}
-    )
+    ).also {
+        clearJarCacheIfIdle()
+    }
 
     override fun leaseReplSession(
         aliveFlagPath: String?,
@@ -805,10 +817,7 @@ class CompileServiceImpl(
         else {
             val disposable = Disposer.newDisposable()
             val compilerMessagesStream = PrintStream(
-                BufferedOutputStream(
-                    RemoteOutputStreamClient(compilerMessagesOutputStream, DummyProfiler()),
-                    REMOTE_STREAM_BUFFER_SIZE
-                )
+                RemoteOutputStreamClient(compilerMessagesOutputStream, DummyProfiler(), REMOTE_STREAM_BUFFER_SIZE)
             )
             val messageCollector = KeepFirstErrorMessageCollector(compilerMessagesStream)
             val repl = KotlinJvmReplService(
@@ -969,10 +978,12 @@ class CompileServiceImpl(
                     gracefulShutdown(false)
                 }
                 anyDead -> {
-                    clearJarCache()
+                    jarCacheClearRequested.set(true)
                 }
             }
         }
+        clearSharedCachesIfMemoryIsLow()
+        clearJarCacheIfIdle()
     }
 
     override fun periodicSeldomCheck() {
@@ -1068,6 +1079,7 @@ class CompileServiceImpl(
         state.alive.set(Aliveness.Dying.ordinal)
 
         UnicastRemoteObject.unexportObject(this, true)
+        classpathWatcher.close()
         log.info("Shutdown complete")
         onShutdown()
         log.handlers.forEach { it.flush() }
@@ -1135,37 +1147,30 @@ class CompileServiceImpl(
         operationsTracer: RemoteOperationsTracer?,
         body: (PrintStream, EventManager, Profiler) -> ExitCode
     ): CompileService.CallResult<Int> =
-        ifAlive {
-            withValidClientOrSessionProxy(sessionId) {
-                operationsTracer?.before("compile")
-                val rpcProfiler = if (daemonOptions.reportPerf) WallAndThreadTotalProfiler() else DummyProfiler()
-                val eventManger = EventManagerImpl()
-                val compilerMessagesStream = PrintStream(
-                    BufferedOutputStream(
-                        RemoteOutputStreamClient(compilerMessagesStreamProxy, rpcProfiler),
-                        REMOTE_STREAM_BUFFER_SIZE
-                    )
-                )
-                val serviceOutputStream = PrintStream(
-                    BufferedOutputStream(
-                        RemoteOutputStreamClient(serviceOutputStreamProxy, rpcProfiler),
-                        REMOTE_STREAM_BUFFER_SIZE
-                    )
-                )
-                try {
-                    val compileServiceReporter = DaemonMessageReporterPrintStreamAdapter(serviceOutputStream)
-                    if (args.none())
-                        throw IllegalArgumentException("Error: empty arguments list.")
-                    log.info("Starting compilation with args: " + args.joinToString(" "))
-                    val exitCode = checkedCompile(compileServiceReporter, rpcProfiler) {
-                        body(compilerMessagesStream, eventManger, rpcProfiler).code
+        // waiting for the admission under the read lock would hold back the operations which need the write lock
+        compilationAdmission.admit {
+            ifAlive {
+                withValidClientOrSessionProxy(sessionId) {
+                    operationsTracer?.before("compile")
+                    val rpcProfiler = if (daemonOptions.reportPerf) WallAndThreadTotalProfiler() else DummyProfiler()
+                    val eventManger = EventManagerImpl()
+                    val compilerMessagesStream = PrintStream(RemoteOutputStreamClient(compilerMessagesStreamProxy, rpcProfiler))
+                    val serviceOutputStream = PrintStream(RemoteOutputStreamClient(serviceOutputStreamProxy, rpcProfiler))
+                    try {
+                        val compileServiceReporter = DaemonMessageReporterPrintStreamAdapter(serviceOutputStream)
+                        if (args.none())
+                            throw IllegalArgumentException("Error: empty arguments list.")
+                        log.info("Starting compilation with args: " + args.joinToString(" "))
+                        val exitCode = checkedCompile(compileServiceReporter, rpcProfiler) {
+                            body(compilerMessagesStream, eventManger, rpcProfiler).code
+                        }
+                        CompileService.CallResult.Good(exitCode)
+                    } finally {
+                        serviceOutputStream.flush()
+                        compilerMessagesStream.flush()
+                        eventManger.fireCompilationFinished()
+                        operationsTracer?.after("compile")
                     }
-                    CompileService.CallResult.Good(exitCode)
-                } finally {
-                    serviceOutputStream.flush()
-                    compilerMessagesStream.flush()
-                    eventManger.fireCompilationFinished()
-                    operationsTracer?.after("compile")
                 }
             }
         }
@@ -1188,6 +1193,33 @@ class CompileServiceImpl(
         registry.rebind(COMPILER_SERVICE_RMI_NAME, stub)
     }
 
+    // The jar cache is shared by all compilations, so it is only cleared when no compilation or other operation is running.
+    // Waiting for that would block new compilations until all running ones are finished, so the clearing is postponed instead.
+    private fun clearJarCacheIfIdle() {
+        if (!jarCacheClearRequested.get()) return
+
+        val writeLock = rwlock.writeLock()
+        if (!writeLock.tryLock()) return // will be retried after the next compilation or periodic check
+        try {
+            compilationAdmission.runIfIdle {
+                if (jarCacheClearRequested.compareAndSet(true, false)) {
+                    clearJarCache()
+                }
+            }
+        } finally {
+            writeLock.unlock()
+        }
+    }
+
+    // The caches shared between compilations only save time, so they are dropped first when the daemon is running low on memory
+    private fun clearSharedCachesIfMemoryIsLow() {
+        if (compilationAdmission.isMemoryLow()) {
+            log.info("Memory is low, clearing caches shared between compilations")
+            SharedInlineCache.clear()
+            SharedModuleMappingCache.clear()
+        }
+    }
+
     override fun clearJarCache() {
         ZipHandler.clearFileAccessorCache()
         (KotlinCoreEnvironment.applicationEnvironment?.jarFileSystem as? CoreJarFileSystem)?.clearHandlersCache()
@@ -18,6 +18,12 @@ package org.jetbrains.kotlin.daemon
 
 import java.io.File
 import java.io.IOException
+import java.nio.file.ClosedWatchServiceException
+import java.nio.file.FileSystems
+import java.nio.file.Path
+import java.nio.file.StandardWatchEventKinds
+import java.nio.file.WatchKey
+import java.nio.file.WatchService
 import java.security.DigestInputStream
 import java.security.MessageDigest
 import java.util.*
@@ -37,17 +43,22 @@ val DEFAULT_CLASSPATH_DIGEST_WATCH_PERIOD_MS = 300000L // 5 min
 
 /**
  * Class for lazy (on demand) check if any relevant file in the classpath is changed
- * poor-man watcher in the absence of NIO
- * TODO: replace with NIO watching when switching to java 7+
+ * The directories containing the classpath files are watched with the NIO [WatchService] if possible, and only the files
+ * which emitted events are checked every [checkPeriod]. If watching is not supported (or [useWatchService] is false), all files
+ * are polled every [checkPeriod]. In both modes the digests of all files are compared every [digestCheckPeriod].
+ * [close] should be called when the watcher is not needed any more, to release the watch service.
  */
 class LazyClasspathWatcher(classpath: Iterable<String>,
                            val checkPeriod: Long = DEFAULT_CLASSPATH_WATCH_PERIOD_MS,
-                           val digestCheckPeriod: Long = DEFAULT_CLASSPATH_DIGEST_WATCH_PERIOD_MS) {
+                           val digestCheckPeriod: Long = DEFAULT_CLASSPATH_DIGEST_WATCH_PERIOD_MS,
+                           useWatchService: Boolean = true) {
 
     private data class FileId(val file: File, val lastModified: Long, val digest: ByteArray)
 
     private val fileIdsLock = Semaphore(1) // a barrier for ensuring ids are initialized, using semaphore to allow modifications from another thread
     private var fileIds: List<FileId>? = null
+    @Volatile private var filesWatcher: ClasspathFilesWatcher? = null
+    private val isClosed = AtomicBoolean(false)
     private val lastChangedStatus = AtomicBoolean(false)
     private val lastUpdate = AtomicLong(0)
     private val lastDigestUpdate = AtomicLong(0)
@@ -58,12 +69,25 @@ class LazyClasspathWatcher(classpath: Iterable<String>,
         fileIdsLock.acquire()
         thread(isDaemon = true, start = true) {
             try {
-                fileIds = classpath
+                val ids = classpath
                         .map(::File)
                         .asSequence()
                         .flatMap { it.walk().filter(::isClasspathFile) }
                         .map { FileId(it, it.lastModified(), it.md5Digest()) }
                         .toList()
+                fileIds = ids
+                val watcher = if (useWatchService) ClasspathFilesWatcher.create(ids, log) else null
+                if (watcher != null) {
+                    filesWatcher = watcher
+                    if (isClosed.get()) {
+                        // closed while the classpath was being walked
+                        watcher.close()
+                    }
+                    else if (ids.any { isFileChanged(it, checkDigest = false) }) {
+                        // changes made between computing the ids and registering the watches produce no events
+                        lastChangedStatus.set(true)
+                    }
+                }
                 val nowMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime())
                 lastUpdate.set(nowMs)
                 lastDigestUpdate.set(nowMs)
@@ -83,33 +107,124 @@ class LazyClasspathWatcher(classpath: Iterable<String>,
         val nowMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime())
         if (nowMs - lastUpdate.get() < checkPeriod) return false
 
-        val checkDigest = nowMs - lastDigestUpdate.get() > digestCheckPeriod
         // making sure that fieldIds are initialized
         fileIdsLock.acquire()
         fileIdsLock.release()
+        val checkDigest = nowMs - lastDigestUpdate.get() > digestCheckPeriod
+        // the events are consumed by the check, so the changed status has to be remembered;
+        // if the watcher is already closed, all files are polled
+        val watchedFiles = filesWatcher?.pollChangedFiles()
         val changed =
-            fileIds?.find {
-                try {
-                    if (!it.file.exists()) {
-                        log.info("cp changed: ${it.file} doesn't exist any more")
-                        true
+            if (watchedFiles != null && !checkDigest) {
+                watchedFiles.any { isFileChanged(it, checkDigest = true) }
+            }
+            else {
+                // a full scan is done in the watch mode too, in case some events were lost
+                val changed = fileIds?.any { isFileChanged(it, checkDigest) } ?: false
+                if (checkDigest) lastDigestUpdate.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()))
+                changed
+            }
+        lastUpdate.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()))
+        if (changed) lastChangedStatus.set(true)
+
+        return changed
+    }
+
+    fun close() {
+        if (isClosed.compareAndSet(false, true)) {
+            filesWatcher?.close()
+        }
+    }
+
+    private fun isFileChanged(fileId: FileId, checkDigest: Boolean): Boolean =
+        try {
+            if (!fileId.file.exists()) {
+                log.info("cp changed: ${fileId.file} doesn't exist any more")
+                true
+            }
+            // if last modified changed or if enforced by param - checking the digest
+            else if ((fileId.file.lastModified() != fileId.lastModified || checkDigest) && !Arrays.equals(fileId.digest, fileId.file.md5Digest())) {
+                log.info("cp changed: ${fileId.file} digests differ")
+                true
+            }
+            else false
+        }
+        catch (e: IOException) {
+            log.log(Level.INFO, "cp changed: ${fileId.file} access throws the exception", e)
+            true // io error considered as change
+        }
+
+    /**
+     * Watches the directories containing the classpath files, and reports the files which emitted events since the previous poll
+     */
+    private class ClasspathFilesWatcher(private val watchService: WatchService, private val filesByKey: Map<WatchKey, Map<Path, FileId>>) {
+
+        /**
+         * Returns null if the watcher is closed
+         */
+        @Synchronized
+        fun pollChangedFiles(): Collection<FileId>? {
+            val changed = LinkedHashSet<FileId>()
+            while (true) {
+                val key = try {
+                    watchService.poll() ?: break
+                }
+                catch (e: ClosedWatchServiceException) {
+                    return null
+                }
+                val files = filesByKey[key] ?: continue
+                for (event in key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        changed.addAll(files.values)
                     }
-                    // if last modified changed or if enforced by param - checking the digest
-                    else if ((it.file.lastModified() != it.lastModified || checkDigest) && !Arrays.equals(it.digest, it.file.md5Digest())) {
-                        log.info("cp changed: ${it.file} digests differ")
-                        true
+                    else {
+                        files[event.context() as? Path]?.let { changed.add(it) }
                     }
-                    else false
                 }
-                catch (e: IOException) {
-                    log.log(Level.INFO, "cp changed: ${it.file} access throws the exception", e)
-                    true // io error considered as change
+                if (!key.reset()) {
+                    // the directory is not accessible any more
+                    changed.addAll(files.values)
                 }
-            } != null
-        lastUpdate.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()))
-        if (checkDigest) lastDigestUpdate.set(lastUpdate.get())
+            }
+            return changed
+        }
 
-        return changed
+        fun close() {
+            try {
+                watchService.close()
+            }
+            catch (e: IOException) {
+                // ignoring, the watcher is not used any more
+            }
+        }
+
+        companion object {
+            fun create(fileIds: List<FileId>, log: Logger): ClasspathFilesWatcher? {
+                val watchService = try {
+                    FileSystems.getDefault().newWatchService()
+                }
+                catch (e: Exception) {
+                    log.log(Level.INFO, "Unable to watch classpath, falling back to polling", e)
+                    return null
+                }
+                return try {
+                    val filesByKey = fileIds.groupBy { it.file.absoluteFile.parentFile }.entries.associate { (dir, files) ->
+                        val key = dir.toPath().register(
+                            watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE
+                        )
+                        key to files.associateBy { it.file.toPath().fileName }
+                    }
+                    ClasspathFilesWatcher(watchService, filesByKey)
+                }
+                catch (e: Exception) {
+                    // e.g. when the limit of watched directories is exceeded
+                    log.log(Level.INFO, "Unable to watch classpath, falling back to polling", e)
+                    watchService.close()
+                    null
+                }
+            }
+        }
     }
 }
 
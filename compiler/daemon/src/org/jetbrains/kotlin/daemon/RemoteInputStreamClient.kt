@@ -21,18 +21,72 @@ import org.jetbrains.kotlin.daemon.common.Profiler
 import org.jetbrains.kotlin.daemon.common.RemoteInputStream
 import org.jetbrains.kotlin.daemon.common.withMeasure
 import java.io.InputStream
+import java.rmi.RemoteException
+import java.rmi.UnmarshalException
+
+/**
+ * Reads ahead from the [remote] stream in chunks of up to [chunkSize] bytes, so that small reads don't make a remote call each.
+ * Falls back to [RemoteInputStream.read] with a length if the other side doesn't support [RemoteInputStream.readChunk].
+ */
+class RemoteInputStreamClient(
+        val remote: RemoteInputStream,
+        val profiler: Profiler = DummyProfiler(),
+        private val chunkSize: Int = DEFAULT_CHUNK_SIZE
+): InputStream() {
+    private var buffer = ByteArray(0)
+    private var position = 0
+    private var endOfStream = false
+    private var chunkReadSupported = true
 
-class RemoteInputStreamClient(val remote: RemoteInputStream, val profiler: Profiler = DummyProfiler()): InputStream() {
     override fun read(data: ByteArray): Int = read(data, 0, data.size)
 
-    override fun read(data: ByteArray, offset: Int, length: Int): Int =
-            profiler.withMeasure(this) {
-                val bytes = remote.read(length)
-                assert(bytes.size <= length)
-                System.arraycopy(bytes, 0, data, offset, length)
-                bytes.size
-            }
+    override fun read(data: ByteArray, offset: Int, length: Int): Int {
+        if (length == 0) return 0
+        if (!fillBuffer()) return -1
+
+        val count = minOf(length, buffer.size - position)
+        System.arraycopy(buffer, position, data, offset, count)
+        position += count
+        return count
+    }
 
     override fun read(): Int =
-            profiler.withMeasure(this) { remote.read() }
+            if (fillBuffer()) buffer[position++].toInt() and 0xFF else -1
+
+    override fun available(): Int = buffer.size - position
+
+    // Returns false at the end of the stream
+    private fun fillBuffer(): Boolean {
+        while (position == buffer.size) {
+            if (endOfStream) return false
+
+            val chunk = profiler.withMeasure(this) { readChunk() }
+            if (chunk == null) {
+                endOfStream = true
+                return false
+            }
+            buffer = chunk
+            position = 0
+        }
+        return true
+    }
+
+    private fun readChunk(): ByteArray? {
+        if (chunkReadSupported) {
+            try {
+                return remote.readChunk(chunkSize)
+            }
+            catch (e: RemoteException) {
+                // the client is older than the daemon; the server side error arrives wrapped into a ServerException
+                if (e !is UnmarshalException && e.cause !is UnmarshalException) throw e
+                chunkReadSupported = false
+            }
+        }
+        // the old protocol returns an empty array at the end of the stream
+        return remote.read(chunkSize).takeIf { it.isNotEmpty() }
+    }
+
+    companion object {
+        const val DEFAULT_CHUNK_SIZE = 64 * 1024
+    }
 }
@@ -16,19 +16,22 @@
 
 package org.jetbrains.kotlin.daemon
 
-import com.intellij.util.containers.StringInterner
-import gnu.trove.THashMap
-import gnu.trove.THashSet
+import org.jetbrains.kotlin.daemon.common.CompactLookups
 import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
 import org.jetbrains.kotlin.daemon.common.DummyProfiler
 import org.jetbrains.kotlin.daemon.common.Profiler
 import org.jetbrains.kotlin.daemon.common.withMeasure
-import org.jetbrains.kotlin.incremental.components.LookupInfo
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.incremental.components.Position
 import org.jetbrains.kotlin.incremental.components.ScopeKind
+import java.rmi.RemoteException
+import java.rmi.UnmarshalException
 
 
+/**
+ * Sends lookups to the client in chunks of [CHUNK_SIZE] during the compilation, so that neither the daemon
+ * nor the client has to keep all lookups of a module as separate objects at once.
+ */
 class RemoteLookupTrackerClient(
     val facade: CompilerCallbackServicesFacade,
     eventManager: EventManager,
@@ -36,25 +39,20 @@ class RemoteLookupTrackerClient(
 ) : LookupTracker {
     private val isDoNothing = profiler.withMeasure(this) { facade.lookupTracker_isDoNothing() }
 
-    // Map: FileName -> (ScopeFqName -> Set<Name[String] | LookupInfo>)
-    private val lookups = THashMap<String, MutableMap<String, MutableSet<Any>>>()
-    private val interner = StringInterner()
-
     override val requiresPosition: Boolean = profiler.withMeasure(this) { facade.lookupTracker_requiresPosition() }
 
-    override fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
-        if (isDoNothing) return
+    private var lookups = CompactLookups.Builder(requiresPosition)
 
-        val internedSymbolFqName = interner.intern(scopeFqName)
-        val internedName = interner.intern(name)
+    // Clients of older versions only support the list of LookupInfo
+    private var isCompactFormatSupported = true
 
-        val objectToPut: Any =
-            if (requiresPosition)
-                LookupInfo(filePath, position, scopeFqName, scopeKind, name)
-            else
-                internedName
+    override fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
+        if (isDoNothing) return
 
-        lookups.getOrPut(filePath, ::THashMap).getOrPut(internedSymbolFqName, ::THashSet).add(objectToPut)
+        lookups.add(filePath, position, scopeFqName, scopeKind, name)
+        if (lookups.size >= CHUNK_SIZE) {
+            flush()
+        }
     }
 
     init {
@@ -62,26 +60,26 @@ class RemoteLookupTrackerClient(
     }
 
     private fun flush() {
-        if (isDoNothing || lookups.isEmpty) return
+        if (isDoNothing || lookups.size == 0) return
+
+        val chunk = lookups.build()
+        lookups = CompactLookups.Builder(requiresPosition)
 
         profiler.withMeasure(this) {
-            facade.lookupTracker_record(
-                lookups.flatMap { (filePath, lookupsByFile) ->
-                    lookupsByFile.flatMap { (scopeFqName, lookupsByScopeFqName) ->
-                        lookupsByScopeFqName.map { lookupInfoOrString ->
-                            if (requiresPosition)
-                                lookupInfoOrString as LookupInfo
-                            else
-                                LookupInfo(
-                                    filePath, Position.NO_POSITION, scopeFqName, ScopeKind.CLASSIFIER,
-                                    lookupInfoOrString as String
-                                )
-                        }
-                    }
+            if (isCompactFormatSupported) {
+                try {
+                    facade.lookupTracker_recordCompact(chunk)
+                    return@withMeasure
+                } catch (e: RemoteException) {
+                    if (e !is UnmarshalException && e.cause !is UnmarshalException) throw e
+                    isCompactFormatSupported = false
                 }
-            )
+            }
+            facade.lookupTracker_record(chunk.toLookupInfos())
         }
+    }
 
-        lookups.clear()
+    private companion object {
+        const val CHUNK_SIZE = 100_000
     }
 }
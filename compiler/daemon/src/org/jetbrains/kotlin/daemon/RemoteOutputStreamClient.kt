@@ -22,16 +22,59 @@ import org.jetbrains.kotlin.daemon.common.RemoteOutputStream
 import org.jetbrains.kotlin.daemon.common.withMeasure
 import java.io.OutputStream
 
-class RemoteOutputStreamClient(val remote: RemoteOutputStream, val profiler: Profiler = DummyProfiler()): OutputStream() {
+/**
+ * Buffers the written data and sends it to the [remote] stream in chunks of up to [bufferSize] bytes,
+ * so that small writes don't make a remote call each. The data is sent on [flush] and [close].
+ */
+class RemoteOutputStreamClient(
+        val remote: RemoteOutputStream,
+        val profiler: Profiler = DummyProfiler(),
+        bufferSize: Int = DEFAULT_BUFFER_SIZE
+): OutputStream() {
+    private val buffer = ByteArray(bufferSize)
+    private var count = 0
+
     override fun write(data: ByteArray) {
-        profiler.withMeasure(this) { remote.write(data, 0, data.size) }
+        write(data, 0, data.size)
     }
 
     override fun write(data: ByteArray, offset: Int, length: Int) {
-        profiler.withMeasure(this) { remote.write(data, offset, length) }
+        if (length >= buffer.size) {
+            // no point in copying large writes into the buffer
+            flushBuffer()
+            profiler.withMeasure(this) { remote.write(data, offset, length) }
+            return
+        }
+        if (length > buffer.size - count) {
+            flushBuffer()
+        }
+        System.arraycopy(data, offset, buffer, count, length)
+        count += length
     }
 
     override fun write(byte: Int) {
-        profiler.withMeasure(this) { remote.write(byte) }
+        if (count == buffer.size) {
+            flushBuffer()
+        }
+        buffer[count++] = byte.toByte()
+    }
+
+    override fun flush() {
+        flushBuffer()
+    }
+
+    override fun close() {
+        flushBuffer()
+    }
+
+    private fun flushBuffer() {
+        if (count > 0) {
+            profiler.withMeasure(this) { remote.write(buffer, 0, count) }
+            count = 0
+        }
+    }
+
+    companion object {
+        const val DEFAULT_BUFFER_SIZE = 64 * 1024
     }
 }
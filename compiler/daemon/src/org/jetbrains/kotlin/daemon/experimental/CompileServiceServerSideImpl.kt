@@ -572,6 +572,7 @@ class CompileServiceServerSideImpl(
         }
         state.alive.set(Aliveness.Dying.ordinal)
         shutdownServer()
+        classpathWatcher.close()
         log.info("Shutdown complete")
         onShutdown()
         log.handlers.forEach { it.flush() }
@@ -20,6 +20,9 @@ import org.jetbrains.kotlin.parsing.KotlinParserDefinition
 import org.jetbrains.kotlin.parsing.KotlinLightParser
 import java.io.File
 import java.nio.file.Path
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 class LightTree2Fir(
     private val session: FirSession = object : FirSessionBase(null) {},
@@ -30,17 +33,18 @@ class LightTree2Fir(
 
     companion object {
         private val parserDefinition = KotlinParserDefinition()
-        private val lexer = KotlinLexer()
+        // The lexer keeps the state of the file being lexed, so files can only be parsed in parallel with separate lexers
+        private val lexer = ThreadLocal.withInitial { KotlinLexer() }
 
         fun buildLightTreeBlockExpression(code: String): FlyweightCapableTreeStructure<LighterASTNode> {
-            val builder = PsiBuilderFactoryImpl().createBuilder(parserDefinition, lexer, code)
+            val builder = PsiBuilderFactoryImpl().createBuilder(parserDefinition, lexer.get(), code)
             //KotlinParser.parseBlockExpression(builder)
             KotlinLightParser.parseBlockExpression(builder)
             return builder.lightTree
         }
 
         fun buildLightTreeLambdaExpression(code: String): FlyweightCapableTreeStructure<LighterASTNode> {
-            val builder = PsiBuilderFactoryImpl().createBuilder(parserDefinition, lexer, code)
+            val builder = PsiBuilderFactoryImpl().createBuilder(parserDefinition, lexer.get(), code)
             //KotlinParser.parseLambdaExpression(builder)
             KotlinLightParser.parseLambdaExpression(builder)
             return builder.lightTree
@@ -51,13 +55,34 @@ class LightTree2Fir(
         return buildFirFile(path.toFile())
     }
 
+    /**
+     * Builds FIR files for [paths] on [parallelism] threads. The result is in the order of [paths].
+     */
+    fun buildFirFiles(paths: List<Path>, parallelism: Int = Runtime.getRuntime().availableProcessors()): List<FirFile> {
+        if (parallelism <= 1 || paths.size <= 1) return paths.map { buildFirFile(it) }
+
+        val executor = Executors.newFixedThreadPool(minOf(parallelism, paths.size))
+        try {
+            val results = paths.map { path -> executor.submit(Callable { buildFirFile(path) }) }
+            return results.map { result ->
+                try {
+                    result.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
     fun buildFirFile(file: File): FirFile {
         val code = FileUtil.loadFile(file, CharsetToolkit.UTF8, true).trim()
         return buildFirFile(code, file.name)
     }
 
     fun buildLightTree(code: String): FlyweightCapableTreeStructure<LighterASTNode> {
-        val builder = PsiBuilderFactoryImpl().createBuilder(parserDefinition, lexer, code)
+        val builder = PsiBuilderFactoryImpl().createBuilder(parserDefinition, lexer.get(), code)
         //KotlinParser(project).parse(null, builder, ktDummyFile)
         KotlinLightParser.parse(builder)
         return builder.lightTree
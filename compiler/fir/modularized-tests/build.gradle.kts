@@ -33,6 +33,7 @@ dependencies {
     testCompile(projectTests(":compiler:fir:resolve"))
     testCompile(project(":compiler:fir:resolve"))
     testCompile(project(":compiler:fir:dump"))
+    testCompile(project(":compiler:fir:lightTree"))
 }
 
 sourceSets {
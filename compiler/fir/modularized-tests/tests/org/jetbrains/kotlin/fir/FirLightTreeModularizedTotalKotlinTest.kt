@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.fir
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.util.Disposer
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.fir.lightTree.LightTree2Fir
+import org.jetbrains.kotlin.fir.scopes.ProcessorAction
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import kotlin.system.measureNanoTime
+
+private val THREAD_COUNTS = listOf(1, 2, 4, Runtime.getRuntime().availableProcessors()).distinct().sorted()
+
+class FirLightTreeModularizedTotalKotlinTest : AbstractModularizedTest() {
+    private lateinit var disposable: Disposable
+    private lateinit var converter: LightTree2Fir
+
+    private var files = 0
+    private val totalTimes = LongArray(THREAD_COUNTS.size)
+
+    override fun beforePass() {
+        disposable = Disposer.newDisposable()
+        val environment = KotlinCoreEnvironment.createForTests(
+            disposable, KotlinTestUtils.newConfiguration(), EnvironmentConfigFiles.JVM_CONFIG_FILES
+        )
+        converter = LightTree2Fir(stubMode = false, project = environment.project)
+        files = 0
+        totalTimes.fill(0L)
+    }
+
+    override fun processModule(moduleData: ModuleData): ProcessorAction {
+        val paths = moduleData.sources.filter { it.extension == "kt" }.map { it.toPath() }
+        for ((index, threads) in THREAD_COUNTS.withIndex()) {
+            totalTimes[index] += measureNanoTime {
+                converter.buildFirFiles(paths, threads)
+            }
+        }
+        files += paths.size
+        return ProcessorAction.NEXT
+    }
+
+    override fun afterPass(pass: Int) {
+        for ((index, threads) in THREAD_COUNTS.withIndex()) {
+            val seconds = totalTimes[index] * 1e-9
+            println("Threads: $threads, files: $files, time: ${totalTimes[index] * 1e-6} ms, files/s: ${(files / seconds).toInt()}")
+        }
+        Disposer.dispose(disposable)
+    }
+
+    fun testTotalKotlin() {
+        for (i in 0 until PASSES) {
+            println("Pass $i")
+            runTestOnce(i)
+        }
+    }
+}
@@ -33,6 +33,8 @@ public class JVMConfigurationKeys {
             CompilerConfigurationKey.create("output .jar");
     public static final CompilerConfigurationKey<Boolean> INCLUDE_RUNTIME =
             CompilerConfigurationKey.create("include runtime to the resulting .jar");
+    public static final CompilerConfigurationKey<Boolean> NO_JAR_COMPRESSION =
+            CompilerConfigurationKey.create("store entries of the resulting .jar uncompressed");
 
     public static final CompilerConfigurationKey<File> JDK_HOME =
             CompilerConfigurationKey.create("jdk home");
@@ -43,6 +45,9 @@ public class JVMConfigurationKeys {
     public static final CompilerConfigurationKey<Boolean> DISABLE_STANDARD_SCRIPT_DEFINITION =
             CompilerConfigurationKey.create("Disable standard kotlin script support");
 
+    public static final CompilerConfigurationKey<Boolean> SKIP_UNCHANGED_OUTPUT =
+            CompilerConfigurationKey.create("do not rewrite output files which have not changed");
+
     public static final CompilerConfigurationKey<Boolean> RETAIN_OUTPUT_IN_MEMORY =
             CompilerConfigurationKey.create("retain compiled classes in memory for further use, e.g. when running scripts");
 
@@ -60,6 +65,12 @@ public class JVMConfigurationKeys {
             CompilerConfigurationKey.create("do not throw NPE on explicit 'equals' call for null receiver of platform boxed primitive type");
     public static final CompilerConfigurationKey<Boolean> DISABLE_OPTIMIZATION =
             CompilerConfigurationKey.create("disable optimization");
+    public static final CompilerConfigurationKey<Integer> PARALLEL_BACKEND_THREADS =
+            CompilerConfigurationKey.create("number of threads for parallel generation of class files [experimental]");
+    public static final CompilerConfigurationKey<Integer> INLINE_CACHE_SIZE =
+            CompilerConfigurationKey.create("size of the cache of inline functions bytecode in megabytes");
+    public static final CompilerConfigurationKey<Boolean> SHARED_INLINE_CACHE =
+            CompilerConfigurationKey.create("keep the cache of inline functions bytecode between compilations");
     public static final CompilerConfigurationKey<Boolean> USE_TYPE_TABLE =
             CompilerConfigurationKey.create("use type table in serializer");
 
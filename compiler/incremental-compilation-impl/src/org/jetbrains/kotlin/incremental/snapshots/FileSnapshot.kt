@@ -19,10 +19,15 @@ package org.jetbrains.kotlin.incremental.snapshots
 import java.io.File
 import java.util.*
 
+/**
+ * Two snapshots are equal if they describe the same content of the file.
+ * [lastModified] is not compared, it is only used to skip hashing of files which are likely to be unchanged.
+ */
 class FileSnapshot(
         val file: File,
         val length: Long,
-        val hash: ByteArray
+        val hash: ByteArray,
+        val lastModified: Long = 0
 ) {
     init {
         assert(!file.isDirectory)
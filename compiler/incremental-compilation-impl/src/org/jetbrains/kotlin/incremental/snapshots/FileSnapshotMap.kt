@@ -26,8 +26,10 @@ class FileSnapshotMap(storageFile: File) : BasicStringMap<FileSnapshot>(storageF
     override fun dumpValue(value: FileSnapshot): String =
             value.toString()
 
-    fun compareAndUpdate(newFiles: Iterable<File>): ChangedFiles.Known {
-        val snapshotProvider = SimpleFileSnapshotProviderImpl()
+    fun compareAndUpdate(
+        newFiles: Iterable<File>,
+        snapshotProvider: FileSnapshotProvider = SimpleFileSnapshotProviderImpl()
+    ): ChangedFiles.Known {
         val newOrModified = ArrayList<File>()
         val removed = ArrayList<File>()
 
@@ -39,17 +41,46 @@ class FileSnapshotMap(storageFile: File) : BasicStringMap<FileSnapshot>(storageF
             }
         }
 
+        // Only files with a different length or timestamp are hashed, and they are hashed in parallel
+        val candidates = ArrayList<File>()
+        val oldSnapshots = HashMap<String, FileSnapshot>()
         for (path in newPaths) {
             val file = File(path)
             val oldSnapshot = storage[path]
-            val newSnapshot = snapshotProvider[file]
+
+            if (oldSnapshot == null || !oldSnapshot.isUpToDate(file)) {
+                candidates.add(file)
+                oldSnapshot?.let { oldSnapshots[path] = it }
+            }
+        }
+
+        val newSnapshots = snapshotProvider.getAll(candidates)
+        val snapshotTime = System.currentTimeMillis()
+        for (newSnapshot in newSnapshots) {
+            val path = newSnapshot.file.path
+            val oldSnapshot = oldSnapshots[path]
 
             if (oldSnapshot == null || oldSnapshot != newSnapshot) {
-                newOrModified.add(file)
-                storage[path] = newSnapshot
+                newOrModified.add(newSnapshot.file)
+            }
+            // Also updates the timestamp of touched but unchanged files, so that they are not hashed again.
+            // A file modified within the timestamp granularity before the snapshot could be modified again without changing
+            // its timestamp or length, so its timestamp is not stored and the file is hashed again next time
+            storage[path] = if (snapshotTime - newSnapshot.lastModified < TIMESTAMP_GRANULARITY_MS) {
+                FileSnapshot(newSnapshot.file, newSnapshot.length, newSnapshot.hash)
+            } else {
+                newSnapshot
             }
         }
 
         return ChangedFiles.Known(newOrModified, removed)
     }
-}
\ No newline at end of file
+
+    private fun FileSnapshot.isUpToDate(file: File): Boolean =
+        lastModified != 0L && lastModified == file.lastModified() && length == file.length()
+
+    private companion object {
+        // The coarsest granularity of file modification times among the common file systems (FAT)
+        const val TIMESTAMP_GRANULARITY_MS = 2000L
+    }
+}
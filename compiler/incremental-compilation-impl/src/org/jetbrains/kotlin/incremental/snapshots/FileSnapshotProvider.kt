@@ -17,15 +17,59 @@
 package org.jetbrains.kotlin.incremental.snapshots
 
 import java.io.File
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
 
 interface FileSnapshotProvider {
     operator fun get(file: File): FileSnapshot
+
+    fun getAll(files: Collection<File>): List<FileSnapshot> =
+        files.map { get(it) }
 }
 
-class SimpleFileSnapshotProviderImpl : FileSnapshotProvider {
+class SimpleFileSnapshotProviderImpl(
+    private val hashAlgorithm: FileHashAlgorithm = FileHashAlgorithm.DEFAULT
+) : FileSnapshotProvider {
     override fun get(file: File): FileSnapshot {
         val length = file.length()
-        val hash = file.md5
-        return FileSnapshot(file, length, hash)
+        val lastModified = file.lastModified()
+        val hash = file.contentHash(hashAlgorithm)
+        return FileSnapshot(file, length, hash, lastModified)
+    }
+
+    // Hashing is dominated by reading the files, which benefits from several threads even on a single disk.
+    // The reads block, so they are done on own threads instead of the common fork-join pool shared by the whole process
+    override fun getAll(files: Collection<File>): List<FileSnapshot> {
+        if (files.size < PARALLEL_HASHING_THRESHOLD) return files.map { get(it) }
+
+        val futures = files.map { file -> hashingExecutor.submit(Callable { get(file) }) }
+        try {
+            return futures.map { future ->
+                try {
+                    future.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+        } finally {
+            futures.forEach { it.cancel(false) }
+        }
+    }
+
+    private companion object {
+        const val PARALLEL_HASHING_THRESHOLD = 32
+
+        private val HASHING_THREADS = minOf(4, Runtime.getRuntime().availableProcessors())
+
+        // Shared by all builds in the process (e.g. the daemon), the threads exit when there is nothing to hash
+        private val hashingExecutor = ThreadPoolExecutor(
+            HASHING_THREADS, HASHING_THREADS, 1, TimeUnit.SECONDS, LinkedBlockingQueue(),
+            object : ThreadFactory {
+                private val counter = AtomicInteger()
+
+                override fun newThread(r: Runnable): Thread =
+                    Thread(r, "Kotlin file hashing ${counter.incrementAndGet()}").apply { isDaemon = true }
+            }
+        ).apply { allowCoreThreadTimeOut(true) }
     }
-}
\ No newline at end of file
+}
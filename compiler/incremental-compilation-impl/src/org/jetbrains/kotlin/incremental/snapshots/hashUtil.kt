@@ -17,20 +17,99 @@
 package org.jetbrains.kotlin.incremental.snapshots
 
 import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import java.security.MessageDigest
 
+enum class FileHashAlgorithm {
+    MD5,
+    // A non-cryptographic 64-bit hash, which is several times faster than MD5. It is only used to detect changes
+    FAST;
+
+    companion object {
+        val DEFAULT: FileHashAlgorithm =
+            if (System.getProperty("kotlin.incremental.snapshots.fast.hash")?.toBoolean() == true) FAST else MD5
+    }
+}
+
+// Files are read by chunks instead of being mapped, since mapped buffers are not unmapped until they are collected,
+// which keeps the files locked on Windows
+private const val BUFFER_SIZE = 64 * 1024
+
 internal val File.md5: ByteArray
-    get() {
-        val messageDigest = MessageDigest.getInstance("MD5")
-        val buffer = ByteArray(4048)
-        inputStream().use { input ->
-            while (true) {
-                val len = input.read(buffer)
-                if (len < 0) {
-                    break
-                }
-                messageDigest.update(buffer, 0, len)
-            }
+    get() = contentHash(FileHashAlgorithm.MD5)
+
+internal fun File.contentHash(algorithm: FileHashAlgorithm): ByteArray =
+    when (algorithm) {
+        FileHashAlgorithm.MD5 -> {
+            val digest = MessageDigest.getInstance("MD5")
+            forEachChunk { buffer, count -> digest.update(buffer, 0, count) }
+            digest.digest()
+        }
+        FileHashAlgorithm.FAST -> {
+            val hash = FastHash(length())
+            forEachChunk(hash::update)
+            hash.digest()
         }
-        return messageDigest.digest()
     }
+
+private inline fun File.forEachChunk(action: (ByteArray, Int) -> Unit) {
+    inputStream().use { input ->
+        val buffer = ByteArray(BUFFER_SIZE)
+        while (true) {
+            val count = input.read(buffer)
+            if (count < 0) break
+            action(buffer, count)
+        }
+    }
+}
+
+/**
+ * A 64-bit hash based on MurmurHash3, which reads the content by 8-byte little-endian words.
+ */
+private class FastHash(length: Long) {
+    private var hash = length * -0x61c8864680b583ebL
+
+    // An incomplete word left from the previous chunk
+    private var tail = 0L
+    private var tailBytes = 0
+
+    fun update(bytes: ByteArray, count: Int) {
+        val buffer = ByteBuffer.wrap(bytes, 0, count).order(ByteOrder.LITTLE_ENDIAN)
+        while (tailBytes != 0 && buffer.hasRemaining()) {
+            addByte(buffer.get())
+        }
+        while (buffer.remaining() >= 8) {
+            hash = mix(hash, buffer.long)
+        }
+        while (buffer.hasRemaining()) {
+            addByte(buffer.get())
+        }
+    }
+
+    private fun addByte(byte: Byte) {
+        tail = tail or ((byte.toLong() and 0xFF) shl (8 * tailBytes))
+        if (++tailBytes == 8) {
+            hash = mix(hash, tail)
+            tail = 0L
+            tailBytes = 0
+        }
+    }
+
+    fun digest(): ByteArray {
+        var result = if (tailBytes != 0) mix(hash, tail) else hash
+
+        result = result xor (result ushr 33)
+        result *= -0xae502812aa7333L
+        result = result xor (result ushr 33)
+        result *= -0x3b314601e57a13adL
+        result = result xor (result ushr 33)
+
+        return ByteBuffer.allocate(8).putLong(result).array()
+    }
+}
+
+private fun mix(hash: Long, word: Long): Long {
+    val k = java.lang.Long.rotateLeft(word * -0x783c846eeebdac2bL, 31) * 0x4cf5ad432745937fL
+    return java.lang.Long.rotateLeft(hash xor k, 27) * 5 + 0x52dce729
+}
@@ -71,6 +71,49 @@ class FileSnapshotMapTest : TestWithWorkingDir() {
         )
     }
 
+    @Test
+    fun testOnlyModifiedOrRacilyCleanFilesAreHashed() {
+        val src = File(workingDir, "src").apply { mkdirs() }
+        val oldTimestamp = System.currentTimeMillis() - 60_000
+
+        val old = File(src, "old.txt").apply { writeText("old"); setLastModified(oldTimestamp) }
+        val recent = File(src, "recent.txt").apply { writeText("recent") }
+        val files = listOf(old, recent)
+
+        val provider = CountingSnapshotProvider()
+        snapshotMap.compareAndUpdate(files, provider)
+        assertEquals(listOf(old, recent).toSortedPaths().toList(), provider.hashedPaths())
+
+        // The old file keeps its timestamp and length, so it is not hashed and the change is not noticed. The recent file was
+        // modified within the timestamp granularity of the snapshot, so it is hashed again and its change is noticed
+        old.writeText("new"); old.setLastModified(oldTimestamp)
+        recent.writeText("RECENT")
+
+        provider.hashed.clear()
+        val diff = snapshotMap.compareAndUpdate(files, provider)
+        assertEquals(listOf(recent).toSortedPaths().toList(), provider.hashedPaths())
+        assertEquals(listOf(recent).toSortedPaths().toList(), diff.modified.toSortedPaths().toList())
+
+        // A changed timestamp makes the file hashed again
+        old.setLastModified(oldTimestamp + 1000)
+        provider.hashed.clear()
+        val diff2 = snapshotMap.compareAndUpdate(files, provider)
+        assertTrue(old.canonicalPath in provider.hashedPaths())
+        assertEquals(listOf(old).toSortedPaths().toList(), diff2.modified.toSortedPaths().toList())
+    }
+
+    private class CountingSnapshotProvider : FileSnapshotProvider {
+        private val delegate = SimpleFileSnapshotProviderImpl()
+        val hashed = ArrayList<File>()
+
+        override fun get(file: File): FileSnapshot {
+            hashed.add(file)
+            return delegate[file]
+        }
+
+        fun hashedPaths(): List<String> = hashed.map { it.canonicalPath }.sorted()
+    }
+
     private fun Iterable<File>.toSortedPaths(): Array<String> =
         map { it.canonicalPath }.sorted().toTypedArray()
 
@@ -72,6 +72,32 @@ class FileSnapshotTest : TestWithWorkingDir() {
         assertNotEquals(oldSnapshot, newSnapshot)
     }
 
+    @Test
+    fun testFastHash() {
+        val provider = SimpleFileSnapshotProviderImpl(FileHashAlgorithm.FAST)
+        val file = File(workingDir, "1.txt").apply { writeText("file") }
+        val oldSnapshot = provider[file]
+        assertEquals(oldSnapshot, provider[file])
+        file.writeText("main")
+        assertNotEquals(oldSnapshot, provider[file])
+    }
+
+    @Test
+    fun testLargeFiles() {
+        // Large files are read in several chunks
+        val bytes = ByteArray(3 * 1024 * 1024 + 3) { it.toByte() }
+        val file = File(workingDir, "1.bin").apply { writeBytes(bytes) }
+        for (algorithm in FileHashAlgorithm.values()) {
+            val provider = SimpleFileSnapshotProviderImpl(algorithm)
+            val oldSnapshot = provider[file]
+            assertEquals(oldSnapshot, provider.getAll(listOf(file)).single())
+
+            bytes[bytes.size - 1]++
+            file.writeBytes(bytes)
+            assertNotEquals(oldSnapshot, provider[file])
+        }
+    }
+
     private fun saveAndReadBack(snapshot: FileSnapshot): FileSnapshot {
         val byteOut = ByteArrayOutputStream()
         DataOutputStream(byteOut).use { FileSnapshotExternalizer.save(it, snapshot) }
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.lexer;
+
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Tokens of a text lexed with {@link KotlinLexer}, which can be updated after an edit of the text by re-lexing only the changed part.
+ * <p>
+ * Every {@code checkpointInterval} tokens, the first token at which the lexer is in the initial state (i.e. outside of strings,
+ * templates and comments, where the lexer keeps no other state) is remembered as a checkpoint. After an edit, lexing is restarted
+ * from the last checkpoint before the changed line, since the lexer may look ahead past the end of a token, but never past the end
+ * of the line outside of strings and comments. It stops at the first checkpoint after the change which starts a token again, and the
+ * rest of the old tokens are shifted.
+ */
+public class KotlinTokenBuffer {
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 64;
+
+    private static final int INITIAL_STATE = 0;
+
+    private final KotlinLexer lexer = new KotlinLexer();
+    private final int checkpointInterval;
+
+    private CharSequence text;
+
+    private IElementType[] types = new IElementType[0];
+    private int[] starts = new int[0];
+    private int[] ends = new int[0];
+    private int tokenCount;
+
+    // indices of the tokens at which the lexer was in the initial state
+    private int[] checkpoints = new int[0];
+    private int checkpointCount;
+
+    public KotlinTokenBuffer(@NotNull CharSequence text) {
+        this(text, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    public KotlinTokenBuffer(@NotNull CharSequence text, int checkpointInterval) {
+        if (checkpointInterval < 1) throw new IllegalArgumentException("Invalid checkpoint interval: " + checkpointInterval);
+        this.checkpointInterval = checkpointInterval;
+        this.text = text;
+        relex(text, 0, 0, 0, 0, Integer.MAX_VALUE);
+    }
+
+    @NotNull
+    public CharSequence getText() {
+        return text;
+    }
+
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    @NotNull
+    public IElementType getTokenType(int index) {
+        checkIndex(index);
+        return types[index];
+    }
+
+    public int getTokenStart(int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    public int getTokenEnd(int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    /**
+     * Updates the tokens after the range [{@code changeStart}, {@code oldChangeEnd}) of the current text has been replaced,
+     * resulting in {@code newText}.
+     *
+     * @return the number of tokens which were lexed
+     */
+    public int update(@NotNull CharSequence newText, int changeStart, int oldChangeEnd) {
+        if (changeStart < 0 || changeStart > oldChangeEnd || oldChangeEnd > text.length()) {
+            throw new IllegalArgumentException("Invalid change range: [" + changeStart + ", " + oldChangeEnd + ")");
+        }
+        int delta = newText.length() - text.length();
+        int newChangeEnd = oldChangeEnd + delta;
+        if (newChangeEnd < changeStart) {
+            throw new IllegalArgumentException("Text length doesn't match the change range: [" + changeStart + ", " + oldChangeEnd + ")");
+        }
+
+        int restartCheckpoint = findRestartCheckpoint(changeStart);
+        int restartToken = restartCheckpoint >= 0 ? checkpoints[restartCheckpoint] : 0;
+        int restartOffset = restartToken < tokenCount ? starts[restartToken] : 0;
+
+        this.text = newText;
+        return relex(newText, restartToken, restartOffset, restartCheckpoint + 1, delta, newChangeEnd);
+    }
+
+    // Lexes newText from restartOffset (which is the start of the token restartToken, and the checkpoint number firstNewCheckpoint)
+    // until the old tokens are reached again after resyncOffset, and splices the result into the old tokens
+    private int relex(
+            @NotNull CharSequence newText, int restartToken, int restartOffset, int firstNewCheckpoint, int delta, int resyncOffset
+    ) {
+        IElementType[] newTypes = new IElementType[Math.max(16, checkpointInterval)];
+        int[] newStarts = new int[newTypes.length];
+        int[] newEnds = new int[newTypes.length];
+        int newCount = 0;
+
+        int[] newCheckpoints = new int[4];
+        int newCheckpointCount = 0;
+        int sinceCheckpoint = checkpointInterval;
+
+        int resyncToken = tokenCount;
+        int resyncCheckpoint = checkpointCount;
+
+        lexer.start(newText, restartOffset, newText.length(), INITIAL_STATE);
+        while (true) {
+            IElementType type = lexer.getTokenType();
+            if (type == null) break;
+
+            int start = lexer.getTokenStart();
+            boolean isInitialState = lexer.getState() == INITIAL_STATE;
+            if (isInitialState && start >= resyncOffset) {
+                int oldCheckpoint = findCheckpointAt(start - delta, firstNewCheckpoint);
+                if (oldCheckpoint >= 0) {
+                    resyncToken = checkpoints[oldCheckpoint];
+                    resyncCheckpoint = oldCheckpoint;
+                    break;
+                }
+            }
+
+            if (isInitialState && sinceCheckpoint >= checkpointInterval) {
+                if (newCheckpointCount == newCheckpoints.length) {
+                    newCheckpoints = Arrays.copyOf(newCheckpoints, newCheckpointCount * 2);
+                }
+                newCheckpoints[newCheckpointCount++] = restartToken + newCount;
+                sinceCheckpoint = 0;
+            }
+
+            if (newCount == newTypes.length) {
+                newTypes = Arrays.copyOf(newTypes, newCount * 2);
+                newStarts = Arrays.copyOf(newStarts, newCount * 2);
+                newEnds = Arrays.copyOf(newEnds, newCount * 2);
+            }
+            newTypes[newCount] = type;
+            newStarts[newCount] = start;
+            newEnds[newCount] = lexer.getTokenEnd();
+            newCount++;
+            sinceCheckpoint++;
+
+            lexer.advance();
+        }
+
+        spliceTokens(restartToken, resyncToken, newTypes, newStarts, newEnds, newCount, delta);
+        spliceCheckpoints(firstNewCheckpoint > 0 ? firstNewCheckpoint - 1 : 0, resyncCheckpoint, newCheckpoints, newCheckpointCount,
+                          restartToken + newCount - resyncToken);
+        return newCount;
+    }
+
+    private void spliceTokens(
+            int from, int to, IElementType[] newTypes, int[] newStarts, int[] newEnds, int newCount, int delta
+    ) {
+        int tailCount = tokenCount - to;
+        int count = from + newCount + tailCount;
+
+        IElementType[] resultTypes = Arrays.copyOf(types, count);
+        int[] resultStarts = Arrays.copyOf(starts, count);
+        int[] resultEnds = Arrays.copyOf(ends, count);
+
+        System.arraycopy(types, to, resultTypes, from + newCount, tailCount);
+        System.arraycopy(starts, to, resultStarts, from + newCount, tailCount);
+        System.arraycopy(ends, to, resultEnds, from + newCount, tailCount);
+        for (int i = from + newCount; i < count; i++) {
+            resultStarts[i] += delta;
+            resultEnds[i] += delta;
+        }
+
+        System.arraycopy(newTypes, 0, resultTypes, from, newCount);
+        System.arraycopy(newStarts, 0, resultStarts, from, newCount);
+        System.arraycopy(newEnds, 0, resultEnds, from, newCount);
+
+        types = resultTypes;
+        starts = resultStarts;
+        ends = resultEnds;
+        tokenCount = count;
+    }
+
+    private void spliceCheckpoints(int from, int to, int[] newCheckpoints, int newCount, int tokenIndexDelta) {
+        int tailCount = checkpointCount - to;
+        int count = from + newCount + tailCount;
+
+        int[] result = Arrays.copyOf(checkpoints, count);
+        System.arraycopy(checkpoints, to, result, from + newCount, tailCount);
+        for (int i = from + newCount; i < count; i++) {
+            result[i] += tokenIndexDelta;
+        }
+        System.arraycopy(newCheckpoints, 0, result, from, newCount);
+
+        checkpoints = result;
+        checkpointCount = count;
+    }
+
+    // The last checkpoint which starts before the line preceding the change, or -1 if lexing should start from the beginning
+    private int findRestartCheckpoint(int changeStart) {
+        if (changeStart == 0) return -1;
+
+        int lineStart = changeStart - 1;
+        while (lineStart > 0 && text.charAt(lineStart - 1) != '\n') {
+            lineStart--;
+        }
+
+        int low = 0;
+        int high = checkpointCount - 1;
+        int result = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (starts[checkpoints[middle]] <= lineStart) {
+                result = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    // The number of the old checkpoint which starts at the given offset of the old text, or -1 if there is no such checkpoint
+    private int findCheckpointAt(int oldOffset, int fromCheckpoint) {
+        int low = fromCheckpoint;
+        int high = checkpointCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int start = starts[checkpoints[middle]];
+            if (start < oldOffset) {
+                low = middle + 1;
+            }
+            else if (start > oldOffset) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= tokenCount) {
+            throw new IndexOutOfBoundsException("Token index: " + index + ", token count: " + tokenCount);
+        }
+    }
+}
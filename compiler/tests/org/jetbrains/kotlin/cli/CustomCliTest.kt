@@ -9,8 +9,10 @@ import junit.framework.Assert
 import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
 import org.jetbrains.kotlin.test.CompilerTestUtil
 import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import org.jetbrains.kotlin.utils.PathUtil
 import java.io.File
 import java.util.jar.JarFile
+import java.util.zip.ZipEntry
 
 private const val EMPTY_MAIN_FUN = "fun main() {}"
 
@@ -39,6 +41,47 @@ class CustomCliTest : TestCaseWithTmpdir() {
         compileAndCheckMainClass(listOf(main1Kt, main2Kt), expectedMainClass = null)
     }
 
+    fun testIncludeRuntime() {
+        val jarFile = compileToJar("-include-runtime")
+        JarFile(jarFile).use { jar ->
+            Assert.assertNotNull(jar.getJarEntry("MainKt.class"))
+            for (entry in jar.entries()) {
+                // Reading the entry checks its CRC
+                jar.getInputStream(entry).use { it.readBytes() }
+            }
+            assertRuntimeEntryTimeKept(jar)
+        }
+    }
+
+    fun testNoJarCompression() {
+        val jarFile = compileToJar("-include-runtime", "-Xno-jar-compression")
+        JarFile(jarFile).use { jar ->
+            Assert.assertNotNull(jar.getJarEntry("kotlin/Unit.class"))
+            for (entry in jar.entries()) {
+                Assert.assertEquals(entry.name, ZipEntry.STORED, entry.method)
+                jar.getInputStream(entry).use { it.readBytes() }
+            }
+            assertRuntimeEntryTimeKept(jar)
+        }
+    }
+
+    private fun assertRuntimeEntryTimeKept(jar: JarFile) {
+        val copied = jar.getJarEntry("kotlin/Unit.class")
+        Assert.assertNotNull(copied)
+        JarFile(PathUtil.kotlinPathsForCompiler.stdlibPath).use { stdlib ->
+            Assert.assertEquals(stdlib.getJarEntry("kotlin/Unit.class").time, copied.time)
+        }
+    }
+
+    private fun compileToJar(vararg options: String): File {
+        val mainKt = tmpdir.resolve("main.kt").apply {
+            writeText(EMPTY_MAIN_FUN)
+        }
+        val jarFile = tmpdir.resolve("output.jar")
+        CompilerTestUtil.executeCompilerAssertSuccessful(K2JVMCompiler(), listOf(*options, "-d", jarFile.absolutePath, mainKt.absolutePath))
+        return jarFile
+    }
+
     private fun compileAndCheckMainClass(sourceFiles: List<File>, expectedMainClass: String?) {
         val jarFile = tmpdir.resolve("output.jar")
         val args = listOf("-include-runtime", "-d", jarFile.absolutePath) + sourceFiles.map { it.absolutePath }
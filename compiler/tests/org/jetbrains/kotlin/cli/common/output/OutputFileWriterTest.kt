@@ -0,0 +1,40 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.common.output
+
+import junit.framework.TestCase
+import java.io.File
+
+class OutputFileWriterTest : TestCase() {
+    private lateinit var outputDir: File
+
+    override fun setUp() {
+        super.setUp()
+        outputDir = createTempDir("outputFileWriter")
+    }
+
+    override fun tearDown() {
+        outputDir.deleteRecursively()
+        super.tearDown()
+    }
+
+    fun testLastSubmittedContentIsWritten() {
+        val files = (0 until 16).map { File(outputDir, "p/C$it.class") }
+        OutputFileWriter(threads = 4).use { writer ->
+            for (version in 0 until 50) {
+                for (file in files) {
+                    writer.write(file, ByteArray(1024 * (50 - version)) { version.toByte() })
+                }
+            }
+        }
+
+        for (file in files) {
+            val bytes = file.readBytes()
+            assertEquals(1024, bytes.size)
+            assertTrue(bytes.all { it == 49.toByte() })
+        }
+    }
+}
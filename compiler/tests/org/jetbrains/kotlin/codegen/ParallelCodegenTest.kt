@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+
+class ParallelCodegenTest : CodegenTestCase() {
+    fun testOutputIsTheSameAsSequential() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY)
+
+        val files = (1..20).map { i ->
+            KotlinTestUtils.createFile(
+                "file$i.kt",
+                """
+                    @file:JvmMultifileClass
+                    @file:JvmName("Facade${i % 3}")
+                    package p${i % 4}
+
+                    inline fun inline$i(block: () -> String): Runnable = object : Runnable {
+                        override fun run() { block() }
+                    }
+
+                    class C$i {
+                        fun foo() = inline$i { "$i" }
+                        val lambda = { x: Int -> x + $i }
+                    }
+                """.trimIndent().let { if (i % 2 == 0) it.lines().drop(2).joinToString("\n") else it },
+                myEnvironment.project
+            )
+        }
+
+        val sequential = generate(files, 1)
+        assertEquals(sequential, generate(files, 4))
+        assertEquals(sequential, generate(files, 16))
+    }
+
+    fun testCrossFileInliningSamWrappersAndWhenByEnum() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY)
+
+        val enumFile = KotlinTestUtils.createFile(
+            "enum.kt",
+            """
+                package e
+
+                enum class Color { RED, GREEN, BLUE }
+            """.trimIndent(),
+            myEnvironment.project
+        )
+
+        val count = 20
+        val files = (0 until count).map { i ->
+            val next = (i + 1) % count
+            KotlinTestUtils.createFile(
+                "file$i.kt",
+                """
+                    package p$i
+
+                    import e.Color
+
+                    inline fun inline$i(crossinline block: () -> String): Runnable = object : Runnable {
+                        override fun run() { block() }
+                    }
+
+                    fun useInlineFromAnotherFile(): Runnable = p$next.inline$next { "$i" }
+
+                    fun samWrapper(f: () -> Unit): Thread = Thread(f)
+
+                    fun whenByEnum(c: Color): Int = when (c) {
+                        Color.RED -> $i
+                        Color.GREEN -> ${i + 1}
+                        Color.BLUE -> ${i + 2}
+                    }
+                """.trimIndent(),
+                myEnvironment.project
+            )
+        }
+
+        val allFiles = files + enumFile
+        val sequential = generate(allFiles, 1)
+        for (attempt in 1..3) {
+            assertEquals(sequential, generate(allFiles, 8))
+        }
+    }
+
+    fun testLargeMethodsOptimizedInParallel() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY)
+
+        // Every statement takes about ten instructions, so the methods are well over the threshold of parallel optimization
+        val files = (1..8).map { i ->
+            val statements = (1..60).joinToString("\n") { j ->
+                "    if (x != null && x > $j) sb.append(list[$j]).append(y ?: $j) else sb.append(\"$i-$j\")"
+            }
+            KotlinTestUtils.createFile(
+                "large$i.kt",
+                "package large$i\n\n" +
+                        "fun large(x: Int?, y: Int?, list: List<String>): String {\n" +
+                        "    val sb = StringBuilder()\n" +
+                        "$statements\n" +
+                        "    return sb.toString()\n" +
+                        "}\n\n" +
+                        "fun small(x: Int) = x + $i\n",
+                myEnvironment.project
+            )
+        }
+
+        val sequential = generate(files, 1)
+        assertEquals(sequential, generate(files, 4))
+    }
+
+    private fun generate(files: List<KtFile>, threads: Int): String {
+        val configuration = myEnvironment.configuration.copy().apply {
+            put(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, threads)
+        }
+        return GenerationUtils.compileFiles(
+            files, configuration, ClassBuilderFactories.TEST, myEnvironment::createPackagePartProvider
+        ).factory.createText()
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.common.CompactLookups
+import org.jetbrains.kotlin.incremental.components.LookupInfo
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
+class CompactLookupsTest : TestCase() {
+    fun testRoundTrip() {
+        val builder = CompactLookups.Builder(requiresPosition = true)
+        val expected = LinkedHashSet<LookupInfo>()
+        for (i in 0 until 3000) {
+            val lookup = LookupInfo("/src/file${i % 10}.kt", Position(i % 7, i % 5), "scope${i % 3}", ScopeKind.values()[i % 2], "name${i % 11}")
+            expected.add(lookup)
+            builder.add(lookup.filePath, lookup.position, lookup.scopeFqName, lookup.scopeKind, lookup.name)
+        }
+
+        val lookups = serializeAndReadBack(builder.build())
+        assertEquals(expected.size, lookups.size)
+        assertEquals(expected.toList(), lookups.toLookupInfos())
+    }
+
+    fun testPositionsAreNotStoredIfNotRequired() {
+        val builder = CompactLookups.Builder(requiresPosition = false)
+        builder.add("a.kt", Position(1, 1), "foo", ScopeKind.PACKAGE, "bar")
+        builder.add("a.kt", Position(2, 2), "foo", ScopeKind.PACKAGE, "bar")
+
+        val lookups = builder.build()
+        assertEquals(1, lookups.size)
+        assertEquals(Position.NO_POSITION, lookups.positionAt(0))
+    }
+
+    // The compact format should be much smaller than the list of LookupInfo, which duplicates strings in every lookup
+    fun testCompactFormatIsSmaller() {
+        val builder = CompactLookups.Builder(requiresPosition = false)
+        for (file in 0 until 100) {
+            for (name in 0 until 500) {
+                builder.add("/project/src/main/kotlin/org/example/package$file/File$file.kt", Position.NO_POSITION,
+                            "org.example.package${name % 20}", ScopeKind.PACKAGE, "name$name")
+            }
+        }
+        val lookups = builder.build()
+
+        val compactSize = serializedSize(lookups)
+        val listSize = serializedSize(ArrayList(lookups.toLookupInfos()))
+        assertTrue("Compact format: $compactSize bytes, list: $listSize bytes", compactSize * 3 < listSize)
+    }
+
+    private fun serializedSize(obj: Any): Int = serialize(obj).size
+
+    private fun serialize(obj: Any): ByteArray =
+        ByteArrayOutputStream().also { bytes -> ObjectOutputStream(bytes).use { it.writeObject(obj) } }.toByteArray()
+
+    private fun serializeAndReadBack(lookups: CompactLookups): CompactLookups =
+        ObjectInputStream(ByteArrayInputStream(serialize(lookups))).use { it.readObject() as CompactLookups }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class CompilationAdmissionTest : TestCase() {
+    fun testParallelismIsLimited() {
+        val admission = CompilationAdmission(maxParallelCompilations = 2, usedMemory = { 0L })
+        admission.acquire()
+        admission.acquire()
+
+        val started = CountDownLatch(1)
+        thread { admission.admit { started.countDown() } }
+        assertFalse(started.await(200, TimeUnit.MILLISECONDS))
+
+        admission.release()
+        assertTrue(started.await(10, TimeUnit.SECONDS))
+        admission.release()
+    }
+
+    fun testCompilationWaitsForMemory() {
+        var used = 900L
+        val admission = CompilationAdmission(maxParallelCompilations = 4, memoryThreshold = 0.8, maxMemory = 1000, usedMemory = { used })
+        // the only compilation is always started
+        admission.acquire()
+
+        val started = CountDownLatch(1)
+        thread { admission.admit { started.countDown() } }
+        assertFalse(started.await(200, TimeUnit.MILLISECONDS))
+
+        used = 100L
+        admission.release()
+        assertTrue(started.await(10, TimeUnit.SECONDS))
+    }
+
+    fun testMemoryWaitIsLimited() {
+        val admission = CompilationAdmission(maxParallelCompilations = 4, maxMemoryWaitMs = 100, maxMemory = 1000, usedMemory = { 1000L })
+        admission.acquire()
+        admission.acquire()
+        assertEquals(2, admission.running)
+    }
+
+    fun testRunIfIdle() {
+        val admission = CompilationAdmission(usedMemory = { 0L })
+        admission.acquire()
+        assertFalse(admission.runIfIdle { fail() })
+        admission.release()
+
+        var run = false
+        assertTrue(admission.runIfIdle { run = true })
+        assertTrue(run)
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import java.io.File
+
+class LazyClasspathWatcherTest : TestCase() {
+    private lateinit var classpathDir: File
+
+    override fun setUp() {
+        super.setUp()
+        classpathDir = createTempDir("classpathWatcher")
+        File(classpathDir, "lib.jar").writeText("lib")
+        File(classpathDir, "classes/A.class").apply { parentFile.mkdirs() }.writeText("A")
+    }
+
+    override fun tearDown() {
+        classpathDir.deleteRecursively()
+        super.tearDown()
+    }
+
+    fun testWatchedChangeIsDetected() {
+        val watcher = LazyClasspathWatcher(listOf(classpathDir.path), checkPeriod = 0)
+        assertFalse(watcher.isChanged)
+
+        File(classpathDir, "classes/A.class").writeText("B")
+        assertTrue(waitForChange(watcher))
+        assertTrue(watcher.isChanged)
+    }
+
+    fun testPolledChangeIsDetected() {
+        val watcher = LazyClasspathWatcher(listOf(classpathDir.path), checkPeriod = 0, useWatchService = false)
+        assertFalse(watcher.isChanged)
+
+        val jar = File(classpathDir, "lib.jar")
+        jar.writeText("lib2")
+        jar.setLastModified(jar.lastModified() + 10000)
+        assertTrue(watcher.isChanged)
+    }
+
+    fun testTouchWithoutChangeIsIgnored() {
+        val watcher = LazyClasspathWatcher(listOf(classpathDir.path), checkPeriod = 0, useWatchService = false)
+        assertFalse(watcher.isChanged)
+
+        val jar = File(classpathDir, "lib.jar")
+        jar.setLastModified(jar.lastModified() + 10000)
+        assertFalse(watcher.isChanged)
+    }
+
+    fun testChangeIsPolledAfterClose() {
+        val watcher = LazyClasspathWatcher(listOf(classpathDir.path), checkPeriod = 0)
+        assertFalse(watcher.isChanged)
+        watcher.close()
+
+        val jar = File(classpathDir, "lib.jar")
+        jar.writeText("lib2")
+        jar.setLastModified(jar.lastModified() + 10000)
+        assertTrue(watcher.isChanged)
+    }
+
+    // some platforms implement the watch service by polling, so the events can come with a delay
+    private fun waitForChange(watcher: LazyClasspathWatcher): Boolean {
+        val deadline = System.currentTimeMillis() + 30000
+        while (System.currentTimeMillis() < deadline) {
+            if (watcher.isChanged) return true
+            Thread.sleep(100)
+        }
+        return false
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.common.RemoteInputStream
+import org.jetbrains.kotlin.daemon.common.RemoteOutputStream
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.rmi.ServerException
+import java.rmi.UnmarshalException
+
+class RemoteStreamClientsTest : TestCase() {
+    fun testInputIsReadAheadInChunks() {
+        val data = ByteArray(1000) { it.toByte() }
+        val remote = FakeRemoteInputStream(data)
+        val client = RemoteInputStreamClient(remote, chunkSize = 256)
+
+        val result = ByteArrayOutputStream()
+        result.write(client.read())
+        val buffer = ByteArray(100)
+        while (true) {
+            val count = client.read(buffer)
+            if (count == -1) break
+            result.write(buffer, 0, count)
+        }
+
+        assertTrue(data.contentEquals(result.toByteArray()))
+        assertEquals(-1, client.read())
+        assertEquals(5, remote.calls)
+    }
+
+    fun testFallsBackToReadIfChunksAreNotSupported() {
+        val data = ByteArray(1000) { it.toByte() }
+        val remote = OldRemoteInputStream(data)
+        val client = RemoteInputStreamClient(remote, chunkSize = 256)
+
+        assertTrue(data.contentEquals(client.readBytes()))
+        assertEquals(-1, client.read())
+        assertEquals(1, remote.chunkCalls)
+    }
+
+    fun testOutputIsWrittenInChunks() {
+        val remote = FakeRemoteOutputStream()
+        val client = RemoteOutputStreamClient(remote, bufferSize = 16)
+
+        repeat(20) { client.write(it) }
+        client.write(ByteArray(40) { 1 })
+        client.write(ByteArray(4) { 2 })
+        assertEquals(3, remote.calls)
+
+        client.flush()
+        assertEquals(4, remote.calls)
+        assertEquals(64, remote.out.size())
+    }
+
+    private class FakeRemoteInputStream(private val data: ByteArray) : RemoteInputStream {
+        private var position = 0
+        var calls = 0
+
+        override fun close() {}
+
+        override fun read(length: Int): ByteArray = readChunk(length) ?: ByteArray(0)
+
+        override fun read(): Int = readChunk(1)?.let { it[0].toInt() and 0xFF } ?: -1
+
+        override fun readChunk(maxLength: Int): ByteArray? {
+            calls++
+            if (position == data.size) return null
+            val end = minOf(data.size, position + maxLength)
+            return data.copyOfRange(position, end).also { position = end }
+        }
+    }
+
+    // Emulates a client built before readChunk was added: RMI reports the unknown method as an UnmarshalException
+    // wrapped into a ServerException
+    private class OldRemoteInputStream(data: ByteArray) : RemoteInputStream {
+        private val input = ByteArrayInputStream(data)
+        var chunkCalls = 0
+
+        override fun close() {}
+
+        override fun read(length: Int): ByteArray {
+            val buffer = ByteArray(length)
+            val count = input.read(buffer).coerceAtLeast(0)
+            return buffer.copyOf(count)
+        }
+
+        override fun read(): Int = input.read()
+
+        override fun readChunk(maxLength: Int): ByteArray? {
+            chunkCalls++
+            throw ServerException("RemoteException occurred in server thread", UnmarshalException("unrecognized method hash"))
+        }
+    }
+
+    private class FakeRemoteOutputStream : RemoteOutputStream {
+        val out = ByteArrayOutputStream()
+        var calls = 0
+
+        override fun close() {}
+
+        override fun write(data: ByteArray, offset: Int, length: Int) {
+            calls++
+            out.write(data, offset, length)
+        }
+
+        override fun write(dataByte: Int) {
+            calls++
+            out.write(dataByte)
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.lexer
+
+import junit.framework.TestCase
+import java.util.*
+
+class KotlinTokenBufferTest : TestCase() {
+    private val sample = """
+        package test
+
+        /* block /* nested */ comment */
+        class A(val x: Int) {
+            fun foo(): String = "x = ${'$'}x, ${'$'}{x + 1.5e3} ${'$'}{ "${'$'}{x}" }"
+
+            val raw = ""${'"'}
+                multiline ${'$'}{ listOf(1, 2).map { it * 2 } }
+            ""${'"'}
+
+            // end of line comment
+            val c = '\n' + `escaped name`.length
+        }
+    """.trimIndent()
+
+    fun testSmallEditRelexesFewTokens() {
+        val text = (1..200).joinToString("\n") { "val x$it = foo($it, \"s$it\")" }
+        val buffer = KotlinTokenBuffer(text, 16)
+        val offset = text.indexOf("x100")
+
+        val lexed = buffer.update(text.replaceRange(offset, offset + 1, "yy"), offset, offset + 1)
+        assertTrue("Too many tokens lexed: $lexed", lexed < 100)
+        assertSameTokens(KotlinTokenBuffer(buffer.text), buffer)
+    }
+
+    fun testRandomEdits() {
+        val random = Random(42)
+        val fragments = listOf("\"", "\"\"\"", "{", "}", "\${", "$", "/*", "*/", "//", "\n", " ", "x", "1.", "e", "'", "`", "")
+
+        for (interval in listOf(1, 4, 64)) {
+            var text = sample
+            val buffer = KotlinTokenBuffer(text, interval)
+            repeat(500) {
+                val start = random.nextInt(text.length + 1)
+                val end = minOf(text.length, start + random.nextInt(4))
+                val replacement = fragments[random.nextInt(fragments.size)]
+                text = text.replaceRange(start, end, replacement)
+
+                buffer.update(text, start, end)
+                assertEquals(text, buffer.text.toString())
+                assertSameTokens(KotlinTokenBuffer(text), buffer)
+            }
+        }
+    }
+
+    private fun assertSameTokens(expected: KotlinTokenBuffer, actual: KotlinTokenBuffer) {
+        assertEquals(expected.tokenCount, actual.tokenCount)
+        for (i in 0 until expected.tokenCount) {
+            assertEquals("Token $i", expected.getTokenType(i), actual.getTokenType(i))
+            assertEquals("Token $i", expected.getTokenStart(i), actual.getTokenStart(i))
+            assertEquals("Token $i", expected.getTokenEnd(i), actual.getTokenEnd(i))
+        }
+    }
+}
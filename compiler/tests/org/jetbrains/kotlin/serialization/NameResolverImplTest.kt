@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.serialization
+
+import org.jetbrains.kotlin.metadata.ProtoBuf
+import org.jetbrains.kotlin.metadata.ProtoBuf.QualifiedNameTable.QualifiedName
+import org.jetbrains.kotlin.metadata.deserialization.NameResolverImpl
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+
+class NameResolverImplTest : KtUsefulTestCase() {
+    private fun create(vararg names: Triple<String, QualifiedName.Kind, Int>): NameResolverImpl {
+        val strings = ProtoBuf.StringTable.newBuilder()
+        val qualifiedNames = ProtoBuf.QualifiedNameTable.newBuilder()
+        for ((index, name) in names.withIndex()) {
+            val (shortName, kind, parent) = name
+            strings.addString(shortName)
+            qualifiedNames.addQualifiedName(
+                QualifiedName.newBuilder().setShortName(index).setKind(kind).setParentQualifiedName(parent)
+            )
+        }
+        return NameResolverImpl(strings.build(), qualifiedNames.build())
+    }
+
+    private val resolver = create(
+        Triple("kotlin", QualifiedName.Kind.PACKAGE, -1),
+        Triple("collections", QualifiedName.Kind.PACKAGE, 0),
+        Triple("Map", QualifiedName.Kind.CLASS, 1),
+        Triple("Entry", QualifiedName.Kind.CLASS, 2),
+        Triple("Root", QualifiedName.Kind.CLASS, -1),
+        Triple("Local", QualifiedName.Kind.LOCAL, 2),
+        Triple("Nested", QualifiedName.Kind.CLASS, 5)
+    )
+
+    fun testQualifiedClassNames() {
+        assertEquals("kotlin/collections/Map", resolver.getQualifiedClassName(2))
+        assertEquals("kotlin/collections/Map.Entry", resolver.getQualifiedClassName(3))
+        assertEquals("Root", resolver.getQualifiedClassName(4))
+        assertEquals("kotlin/collections/Map.Local.Nested", resolver.getQualifiedClassName(6))
+
+        // The second request is served from the cache
+        assertEquals("kotlin/collections/Map.Entry", resolver.getQualifiedClassName(3))
+    }
+
+    fun testPackageFqNames() {
+        assertEquals("kotlin", resolver.getPackageFqName(0))
+        assertEquals("kotlin.collections", resolver.getPackageFqName(1))
+        assertEquals("kotlin.collections", resolver.getPackageFqName(3))
+        assertEquals("", resolver.getPackageFqName(4))
+    }
+
+    fun testLocalClassNames() {
+        assertFalse(resolver.isLocalClassName(3))
+        assertTrue(resolver.isLocalClassName(5))
+        assertTrue(resolver.isLocalClassName(6))
+    }
+}
@@ -150,6 +150,29 @@ class JvmNameResolverTest : KtUsefulTestCase() {
         assertEquals("def", n.getString(3))
     }
 
+    fun testEmptyRange() {
+        val n = create {
+            string(null, operation = INTERNAL_TO_CLASS_ID, range = 0)
+            string("a\$b", operation = NONE)
+            string("c\$d")
+            string(null, operation = INTERNAL_TO_CLASS_ID, range = 0)
+            string("e\$f", operation = INTERNAL_TO_CLASS_ID)
+        }
+
+        assertEquals("a\$b", n.getString(0))
+        assertEquals("c\$d", n.getString(1))
+        assertEquals("e.f", n.getString(2))
+    }
+
+    fun testRepeatedRequests() {
+        val n = create {
+            string("Lfoo/Bar\$Baz;", operation = DESC_TO_CLASS_ID)
+        }
+
+        assertEquals("foo/Bar.Baz", n.getString(0))
+        assertEquals("foo/Bar.Baz", n.getString(0))
+    }
+
     fun testRangeWithDifferentOperations() {
         val n = create {
             string("a\$b\$c", operation = INTERNAL_TO_CLASS_ID, range = 2)
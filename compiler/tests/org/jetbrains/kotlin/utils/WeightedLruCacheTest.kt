@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.utils
+
+import junit.framework.TestCase
+
+class WeightedLruCacheTest : TestCase() {
+    fun testEvictsLeastRecentlyUsedByWeight() {
+        val cache = WeightedLruCache<String, ByteArray>(10) { it.size.toLong() }
+        cache.put("a", ByteArray(4))
+        cache.put("b", ByteArray(4))
+        assertNotNull(cache.get("a"))
+
+        cache.put("c", ByteArray(4))
+        assertNull(cache.get("b"))
+        assertNotNull(cache.get("a"))
+        assertNotNull(cache.get("c"))
+    }
+
+    fun testValuesHeavierThanLimitAreNotCached() {
+        val cache = WeightedLruCache<String, ByteArray>(10) { it.size.toLong() }
+        cache.put("a", ByteArray(4))
+        cache.put("huge", ByteArray(11))
+        assertNull(cache.get("huge"))
+        assertNotNull(cache.get("a"))
+    }
+
+    fun testClearReleasesWeight() {
+        val cache = WeightedLruCache<String, ByteArray>(10) { it.size.toLong() }
+        cache.put("a", ByteArray(10))
+        cache.clear()
+        assertNull(cache.get("a"))
+
+        cache.put("b", ByteArray(10))
+        assertNotNull(cache.get("b"))
+    }
+
+    fun testHitsAndMisses() {
+        val cache = WeightedLruCache<String, String>(100) { 1 }
+        assertEquals("x", cache.getOrPut("a") { "x" })
+        assertEquals("x", cache.getOrPut("a") { "y" })
+        assertEquals(1, cache.hitCount)
+        assertEquals(1, cache.missCount)
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.utils
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A thread-safe LRU map, which evicts the least recently used entries when the total weight of values exceeds [maxWeight].
+ */
+class WeightedLruCache<K : Any, V : Any>(private val maxWeight: Long, private val weigher: (V) -> Long) {
+    private val map = LinkedHashMap<K, V>(16, 0.75f, true)
+    private var totalWeight = 0L
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    val hitCount: Long get() = hits.get()
+    val missCount: Long get() = misses.get()
+
+    fun get(key: K): V? {
+        val value = synchronized(this) { map[key] }
+        (if (value != null) hits else misses).incrementAndGet()
+        return value
+    }
+
+    fun put(key: K, value: V) {
+        val weight = weigher(value)
+        if (weight > maxWeight) return
+
+        synchronized(this) {
+            map.put(key, value)?.let { totalWeight -= weigher(it) }
+            totalWeight += weight
+
+            val iterator = map.values.iterator()
+            while (totalWeight > maxWeight && iterator.hasNext()) {
+                totalWeight -= weigher(iterator.next())
+                iterator.remove()
+            }
+        }
+    }
+
+    fun clear() {
+        synchronized(this) {
+            map.clear()
+            totalWeight = 0
+        }
+    }
+
+    // The value is computed outside of the lock, so it can be computed more than once if requested concurrently
+    inline fun getOrPut(key: K, defaultValue: () -> V): V =
+        get(key) ?: defaultValue().also { put(key, it) }
+
+    override fun toString(): String = "hits: $hitCount, misses: $missCount"
+}
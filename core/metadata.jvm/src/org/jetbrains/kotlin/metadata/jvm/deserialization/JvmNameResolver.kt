@@ -16,20 +16,29 @@ class JvmNameResolver(
 ) : NameResolver {
     private val localNameIndices = types.localNameList.run { if (isEmpty()) emptySet() else toSet() }
 
-    // Here we expand the 'range' field of the Record message for simplicity to a list of records
-    val records: List<Record> = ArrayList<Record>().apply {
+    // The index of the first string of each record, since the 'range' field of the Record message makes it apply to several strings
+    private val recordStarts: IntArray
+
+    // Strings are decoded on the first request. The array is accessed without synchronization: a racing thread can only
+    // decode the same string again, and strings are immutable, so they are safely published
+    private val decodedStrings: Array<String?>
+
+    init {
         val records = types.recordList
-        this.ensureCapacity(records.size)
-        for (record in records) {
-            repeat(record.range) {
-                this.add(record)
-            }
+        recordStarts = IntArray(records.size)
+        var count = 0
+        for (i in records.indices) {
+            recordStarts[i] = count
+            count += maxOf(records[i].range, 0)
         }
-        this.trimToSize()
+        decodedStrings = arrayOfNulls(count)
     }
 
-    override fun getString(index: Int): String {
-        val record = records[index]
+    override fun getString(index: Int): String =
+        decodedStrings[index] ?: decodeString(index).also { decodedStrings[index] = it }
+
+    private fun decodeString(index: Int): String {
+        val record = getRecord(index)
 
         var string = when {
             record.hasString() -> record.string
@@ -68,6 +77,17 @@ class JvmNameResolver(
         return string
     }
 
+    // The last record starting at or before the index, records with an empty range start at the same index as the next one
+    private fun getRecord(index: Int): Record {
+        var low = 0
+        var high = recordStarts.size - 1
+        while (low < high) {
+            val middle = (low + high + 1) ushr 1
+            if (recordStarts[middle] <= index) low = middle else high = middle - 1
+        }
+        return types.getRecord(low)
+    }
+
     override fun getQualifiedClassName(index: Int): String =
         getString(index)
 
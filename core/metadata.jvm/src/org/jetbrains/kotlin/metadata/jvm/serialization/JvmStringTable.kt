@@ -21,7 +21,11 @@ open class JvmStringTable(nameResolver: JvmNameResolver? = null) : StringTable {
     init {
         if (nameResolver != null) {
             strings.addAll(nameResolver.strings)
-            nameResolver.records.mapTo(records, JvmProtoBuf.StringTableTypes.Record::toBuilder)
+            for (record in nameResolver.types.recordList) {
+                repeat(record.range) {
+                    records.add(record.toBuilder())
+                }
+            }
             for (index in strings.indices) {
                 map[nameResolver.getString(index)] = index
             }
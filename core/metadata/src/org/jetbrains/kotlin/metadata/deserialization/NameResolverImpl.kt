@@ -7,47 +7,57 @@ package org.jetbrains.kotlin.metadata.deserialization
 
 import org.jetbrains.kotlin.metadata.ProtoBuf
 import org.jetbrains.kotlin.metadata.ProtoBuf.QualifiedNameTable.QualifiedName
-import java.util.*
 
 class NameResolverImpl(
     private val strings: ProtoBuf.StringTable,
     private val qualifiedNames: ProtoBuf.QualifiedNameTable
 ) : NameResolver {
+    // The same names are requested many times during deserialization, so they are resolved once per index.
+    // The arrays are accessed without synchronization: a racing thread can only resolve the same name again,
+    // and strings are immutable, so they are safely published
+    private val qualifiedClassNames = arrayOfNulls<String>(qualifiedNames.qualifiedNameCount)
+    private val packageFqNames = arrayOfNulls<String>(qualifiedNames.qualifiedNameCount)
+
     override fun getString(index: Int): String = strings.getString(index)
 
-    override fun getQualifiedClassName(index: Int): String {
-        val (packageFqNameSegments, relativeClassNameSegments) = traverseIds(index)
-        val className = relativeClassNameSegments.joinToString(".")
-        return if (packageFqNameSegments.isEmpty()) className
-        else packageFqNameSegments.joinToString("/") + "/$className"
-    }
+    override fun getQualifiedClassName(index: Int): String =
+        qualifiedClassNames[index] ?: computeQualifiedClassName(index).also { qualifiedClassNames[index] = it }
 
-    override fun isLocalClassName(index: Int): Boolean =
-        traverseIds(index).third
+    override fun isLocalClassName(index: Int): Boolean {
+        var current = index
+        while (current != -1) {
+            val proto = qualifiedNames.getQualifiedName(current)
+            if (proto.kind == QualifiedName.Kind.LOCAL) return true
+            current = proto.parentQualifiedName
+        }
+        return false
+    }
 
     fun getPackageFqName(index: Int): String =
-        traverseIds(index).first.joinToString(".")
-
-    private fun traverseIds(startingIndex: Int): Triple<List<String>, List<String>, Boolean> {
-        var index = startingIndex
-        val packageNameSegments = LinkedList<String>()
-        val relativeClassNameSegments = LinkedList<String>()
-        var local = false
-
-        while (index != -1) {
-            val proto = qualifiedNames.getQualifiedName(index)
-            val shortName = strings.getString(proto.shortName)
-            when (proto.kind!!) {
-                QualifiedName.Kind.CLASS -> relativeClassNameSegments.addFirst(shortName)
-                QualifiedName.Kind.PACKAGE -> packageNameSegments.addFirst(shortName)
-                QualifiedName.Kind.LOCAL -> {
-                    relativeClassNameSegments.addFirst(shortName)
-                    local = true
-                }
-            }
-
-            index = proto.parentQualifiedName
+        packageFqNames[index] ?: buildString { appendSegments(index, true, '.') }.also { packageFqNames[index] = it }
+
+    private fun computeQualifiedClassName(index: Int): String {
+        val builder = StringBuilder()
+        if (builder.appendSegments(index, true, '/') > 0) {
+            builder.append('/')
+        }
+        builder.appendSegments(index, false, '.')
+        return builder.toString()
+    }
+
+    // Appends the short names of either package or class segments of the qualified name starting from the outermost one,
+    // returns the number of the appended segments
+    private fun StringBuilder.appendSegments(index: Int, packageSegments: Boolean, separator: Char): Int {
+        if (index == -1) return 0
+
+        val proto = qualifiedNames.getQualifiedName(index)
+        val count = appendSegments(proto.parentQualifiedName, packageSegments, separator)
+        if ((proto.kind == QualifiedName.Kind.PACKAGE) != packageSegments) return count
+
+        if (count > 0) {
+            append(separator)
         }
-        return Triple(packageNameSegments, relativeClassNameSegments, local)
+        append(strings.getString(proto.shortName))
+        return count + 1
     }
 }
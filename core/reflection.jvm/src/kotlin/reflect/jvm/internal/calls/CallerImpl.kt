@@ -38,7 +38,7 @@ internal sealed class CallerImpl<out M : Member>(
     ) {
         override fun call(args: Array<*>): Any? {
             checkArguments(args)
-            return member.newInstance(*args)
+            return ReflectionCalls.newInstance(member, args)
         }
     }
 
@@ -94,7 +94,7 @@ internal sealed class CallerImpl<out M : Member>(
         private val isVoidMethod = returnType == Void.TYPE
 
         protected fun callMethod(instance: Any?, args: Array<*>): Any? {
-            val result = member.invoke(instance, *args)
+            val result = ReflectionCalls.invoke(member, instance, args)
 
             // If this is a Unit function, the method returns void, Method#invoke returns null, while we should return Unit
             return if (isVoidMethod) Unit else result
@@ -110,7 +110,7 @@ internal sealed class CallerImpl<out M : Member>(
         class Instance(method: ReflectMethod) : Method(method) {
             override fun call(args: Array<*>): Any? {
                 checkArguments(args)
-                return callMethod(args[0], args.dropFirst())
+                return callMethod(args[0], argumentsAfterFirst(args))
             }
         }
 
@@ -118,7 +118,7 @@ internal sealed class CallerImpl<out M : Member>(
             override fun call(args: Array<*>): Any? {
                 checkArguments(args)
                 checkObjectInstance(args.firstOrNull())
-                return callMethod(null, args.dropFirst())
+                return callMethod(null, argumentsAfterFirst(args))
             }
         }
 
@@ -234,6 +234,12 @@ internal sealed class CallerImpl<out M : Member>(
     }
 
     companion object {
+        private val NO_ARGUMENTS = arrayOf<Any?>()
+
+        // Most calls through reflection are property getters, which have no arguments except for the receiver
+        private fun argumentsAfterFirst(args: Array<*>): Array<*> =
+            if (args.size <= 1) NO_ARGUMENTS else args.copyOfRange(1, args.size)
+
         @Suppress("UNCHECKED_CAST")
         inline fun <reified T> Array<out T>.dropFirst(): Array<T> =
             if (size <= 1) emptyArray() else copyOfRange(1, size) as Array<T>
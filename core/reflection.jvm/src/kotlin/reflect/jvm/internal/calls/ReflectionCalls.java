@@ -0,0 +1,23 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package kotlin.reflect.jvm.internal.calls;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/* package */ class ReflectionCalls {
+    // The arguments are passed as is, while the spread operator in Kotlin would copy the array on every call
+    public static Object invoke(Method method, Object instance, Object[] args)
+            throws IllegalAccessException, InvocationTargetException {
+        return method.invoke(instance, args);
+    }
+
+    public static Object newInstance(Constructor<?> constructor, Object[] args)
+            throws IllegalAccessException, InvocationTargetException, InstantiationException {
+        return constructor.newInstance(args);
+    }
+}
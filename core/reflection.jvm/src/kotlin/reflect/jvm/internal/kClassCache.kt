@@ -16,21 +16,29 @@
 
 package kotlin.reflect.jvm.internal
 
+import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
-import kotlin.reflect.jvm.internal.pcollections.HashPMap
+import java.util.concurrent.ConcurrentHashMap
 
-// TODO: collect nulls periodically
-// Key of the map is Class.getName(), each value is either a WeakReference<KClassImpl<*>> or an Array<WeakReference<KClassImpl<*>>>.
+// Key of the map is Class.getName(), each value is either a KClassReference or an Array<KClassReference>.
 // Arrays are needed because the same class can be loaded by different class loaders, which results in different Class instances.
-// This variable is not volatile intentionally: we don't care if there's a data race on it and some KClass instances will be lost.
-// We do care however about general performance on read access to it, thus no synchronization is done here whatsoever
-private var K_CLASS_CACHE = HashPMap.empty<String, Any>()
+// Classes are not used as keys, so that the cache doesn't prevent them from being unloaded. Reads don't take any locks,
+// and the entries of collected KClass instances are removed when a new instance is created.
+// ClassValue would be a better fit, but it's not available on Java 6 which kotlin-reflect still supports
+private val K_CLASS_CACHE = ConcurrentHashMap<String, Any>()
+
+private val COLLECTED_K_CLASSES = ReferenceQueue<KClassImpl<*>>()
+
+private class KClassReference(kClass: KClassImpl<*>, val name: String) : WeakReference<KClassImpl<*>>(kClass, COLLECTED_K_CLASSES)
 
 // This function is invoked on each reflection access to Java classes, properties, etc. Performance is critical here.
 internal fun <T : Any> getOrCreateKotlinClass(jClass: Class<T>): KClassImpl<T> {
     val name = jClass.name
-    val cached = K_CLASS_CACHE[name]
-    if (cached is WeakReference<*>) {
+    return findKotlinClass(K_CLASS_CACHE[name], jClass) ?: createKotlinClass(name, jClass)
+}
+
+private fun <T : Any> findKotlinClass(cached: Any?, jClass: Class<T>): KClassImpl<T>? {
+    if (cached is KClassReference) {
         @Suppress("UNCHECKED_CAST")
         val kClass = cached.get() as KClassImpl<T>?
         if (kClass?.jClass == jClass) {
@@ -39,31 +47,72 @@ internal fun <T : Any> getOrCreateKotlinClass(jClass: Class<T>): KClassImpl<T> {
     } else if (cached != null) {
         // If the cached value is not a weak reference, it's an array of weak references
         @Suppress("UNCHECKED_CAST")
-        (cached as Array<WeakReference<KClassImpl<T>>>)
-        for (ref in cached) {
-            val kClass = ref.get()
+        for (ref in cached as Array<KClassReference>) {
+            val kClass = ref.get() as KClassImpl<T>?
             if (kClass?.jClass == jClass) {
                 return kClass
             }
         }
-
-        // This is the most unlikely case: we found a cached array of references of length at least 2 (can't be 1 because
-        // the single element would be cached instead), and none of those classes is the one we're looking for
-        val size = cached.size
-        val newArray = arrayOfNulls<WeakReference<KClassImpl<*>>>(size + 1)
-        // Don't use Arrays.copyOf because it works reflectively
-        System.arraycopy(cached, 0, newArray, 0, size)
-        val newKClass = KClassImpl(jClass)
-        newArray[size] = WeakReference(newKClass)
-        K_CLASS_CACHE = K_CLASS_CACHE.plus(name, newArray)
-        return newKClass
     }
+    return null
+}
+
+private fun <T : Any> createKotlinClass(name: String, jClass: Class<T>): KClassImpl<T> {
+    removeCollectedKClasses()
 
     val newKClass = KClassImpl(jClass)
-    K_CLASS_CACHE = K_CLASS_CACHE.plus(name, WeakReference(newKClass))
-    return newKClass
+    val newRef = KClassReference(newKClass, name)
+    while (true) {
+        val cached = K_CLASS_CACHE[name]
+        // Another thread could have created an instance for this class meanwhile
+        findKotlinClass(cached, jClass)?.let { return it }
+
+        val added = if (cached == null) {
+            K_CLASS_CACHE.putIfAbsent(name, newRef) == null
+        } else {
+            // This is the most unlikely case: the same class name is already cached for another class loader
+            K_CLASS_CACHE.replace(name, cached, aliveReferences(cached, newRef)!!)
+        }
+        if (added) return newKClass
+    }
+}
+
+// Returns the references of the cached value which are not cleared yet, together with [newRef] if it's not null
+private fun aliveReferences(cached: Any, newRef: KClassReference?): Any? {
+    @Suppress("UNCHECKED_CAST")
+    val refs = if (cached is KClassReference) arrayOf(cached) else cached as Array<KClassReference>
+
+    // A reference can be cleared at any moment, so it's checked only once. If it's cleared after the check,
+    // it's skipped on lookup and dropped on the next cleanup
+    val result = ArrayList<KClassReference>(refs.size + 1)
+    for (ref in refs) {
+        if (ref.get() != null) result.add(ref)
+    }
+    if (newRef != null) {
+        result.add(newRef)
+    }
+
+    return when (result.size) {
+        0 -> null
+        1 -> result[0]
+        else -> result.toTypedArray()
+    }
+}
+
+private fun removeCollectedKClasses() {
+    while (true) {
+        val ref = COLLECTED_K_CLASSES.poll() as KClassReference? ?: return
+        val cached = K_CLASS_CACHE[ref.name] ?: continue
+        if (cached === ref) {
+            K_CLASS_CACHE.remove(ref.name, ref)
+        } else if (cached is Array<*> && ref in cached) {
+            // If the entry is changed concurrently, the cleared reference is dropped the next time a KClass with this name is created
+            val alive = aliveReferences(cached, null)
+            if (alive == null) K_CLASS_CACHE.remove(ref.name, cached) else K_CLASS_CACHE.replace(ref.name, cached, alive)
+        }
+    }
 }
 
 internal fun clearKClassCache() {
-    K_CLASS_CACHE = HashPMap.empty()
+    K_CLASS_CACHE.clear()
 }
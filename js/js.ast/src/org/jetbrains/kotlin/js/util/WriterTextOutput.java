@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams the printed text to a {@link Writer}, so that large programs don't have to be kept in memory as a string.
+ * The writer should be buffered. The first I/O error is remembered and rethrown by {@link #close()}, which also closes the writer.
+ */
+public class WriterTextOutput extends AbstractTextOutput implements Closeable {
+    private final Writer writer;
+    private IOException error;
+
+    public WriterTextOutput(@NotNull Writer writer) {
+        this(writer, false);
+    }
+
+    public WriterTextOutput(@NotNull Writer writer, boolean compact) {
+        super(compact);
+        this.writer = writer;
+    }
+
+    @Override
+    protected void append(char c) {
+        if (error != null) return;
+        try {
+            writer.write(c);
+        }
+        catch (IOException e) {
+            error = e;
+        }
+    }
+
+    @Override
+    protected void append(char[] chars) {
+        if (error != null) return;
+        try {
+            writer.write(chars);
+        }
+        catch (IOException e) {
+            error = e;
+        }
+    }
+
+    @Override
+    protected void append(CharSequence s) {
+        if (error != null) return;
+        try {
+            writer.append(s);
+        }
+        catch (IOException e) {
+            error = e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.close();
+        }
+        catch (IOException e) {
+            if (error == null) error = e;
+        }
+        if (error != null) throw error;
+    }
+}
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.js.dce
 
 import com.google.gwt.dev.js.rhino.CodePosition
 import com.google.gwt.dev.js.rhino.ErrorReporter
+import com.google.gwt.dev.js.rhino.Node as RhinoNode
 import org.jetbrains.kotlin.js.backend.JsToStringGenerationVisitor
 import org.jetbrains.kotlin.js.backend.ast.JsBlock
 import org.jetbrains.kotlin.js.backend.ast.JsGlobalBlock
@@ -27,16 +28,23 @@ import org.jetbrains.kotlin.js.dce.Context.Node
 import org.jetbrains.kotlin.js.facade.SourceMapBuilderConsumer
 import org.jetbrains.kotlin.js.inline.util.collectDefinedNames
 import org.jetbrains.kotlin.js.inline.util.fixForwardNameReferences
-import org.jetbrains.kotlin.js.parser.parse
+import org.jetbrains.kotlin.js.parser.parseSyntaxTree
 import org.jetbrains.kotlin.js.parser.sourcemaps.SourceMapError
 import org.jetbrains.kotlin.js.parser.sourcemaps.SourceMapLocationRemapper
+import org.jetbrains.kotlin.js.parser.sourcemaps.SourceMapParseResult
 import org.jetbrains.kotlin.js.parser.sourcemaps.SourceMapParser
 import org.jetbrains.kotlin.js.parser.sourcemaps.SourceMapSuccess
+import org.jetbrains.kotlin.js.parser.toJsStatements
 import org.jetbrains.kotlin.js.sourceMap.SourceFilePathResolver
 import org.jetbrains.kotlin.js.sourceMap.SourceMap3Builder
-import org.jetbrains.kotlin.js.util.TextOutputImpl
+import org.jetbrains.kotlin.js.util.WriterTextOutput
 import java.io.File
 import java.io.InputStreamReader
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit) {
     val moduleMapping = mutableMapOf<JsBlock, String>()
@@ -80,16 +88,19 @@ class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit
             val program = JsProgram()
             val dce = DeadCodeElimination(logConsumer)
 
+            // Reading and parsing is independent for each file, only the conversion to JS AST declares names in the shared scope
+            val parsedFiles = parseInParallel(inputFiles.toList())
+
             var hasErrors = false
-            val blocks = inputFiles.map { file ->
+            val blocks = parsedFiles.map { parsedFile ->
+                val file = parsedFile.file
                 val block = JsGlobalBlock()
-                val code = file.resource.reader().let { InputStreamReader(it, "UTF-8") }.use { it.readText() }
-                val statements = parse(code, Reporter(file.resource.name, logConsumer), program.scope, file.resource.name) ?: run {
+                parsedFile.messages.forEach { (level, message) -> logConsumer(level, message) }
+                val statements = parsedFile.syntaxTree?.toJsStatements(program.scope, file.resource.name) ?: run {
                     hasErrors = true
                     return@map block
                 }
-                val sourceMapParse = file.sourceMapResource
-                        ?.let { SourceMapParser.parse(InputStreamReader(it.reader(), "UTF-8").readText()) }
+                val sourceMapParse = parsedFile.sourceMapParse
                 when (sourceMapParse) {
                     is SourceMapError -> {
                         logConsumer(
@@ -117,24 +128,34 @@ class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit
 
             for ((file, block) in inputFiles.zip(blocks)) {
                 val sourceMapFile = File(file.outputPath + ".map")
-                val textOutput = TextOutputImpl()
-                val sourceMapBuilder = SourceMap3Builder(File(file.outputPath), textOutput, "")
-
-                val inputFile = File(file.resource.name)
-                val sourceBaseDir = if (inputFile.exists()) inputFile.parentFile else File(".")
-
-                val sourcePathResolver = SourceFilePathResolver(emptyList(), File(file.outputPath).parentFile)
-                val consumer = SourceMapBuilderConsumer(sourceBaseDir, sourceMapBuilder, sourcePathResolver, true, true)
-                block.accept(JsToStringGenerationVisitor(textOutput, consumer))
-                val sourceMapContent = sourceMapBuilder.build()
-                sourceMapBuilder.addLink()
-
-                with(File(file.outputPath)) {
-                    parentFile.mkdirs()
-                    writeText(textOutput.toString())
+                val outputFile = File(file.outputPath)
+                outputFile.parentFile.mkdirs()
+
+                // The code is streamed to the file instead of being collected into a string, since bundles can be large
+                val tempOutputFile = File.createTempFile(outputFile.name, ".tmp", outputFile.parentFile)
+                val sourceMapContent = try {
+                    val content = WriterTextOutput(tempOutputFile.bufferedWriter()).use { textOutput ->
+                        val sourceMapBuilder = SourceMap3Builder(outputFile, textOutput, "")
+
+                        val inputFile = File(file.resource.name)
+                        val sourceBaseDir = if (inputFile.exists()) inputFile.parentFile else File(".")
+
+                        val sourcePathResolver = SourceFilePathResolver(emptyList(), outputFile.parentFile)
+                        val consumer = SourceMapBuilderConsumer(sourceBaseDir, sourceMapBuilder, sourcePathResolver, true, true)
+                        block.accept(JsToStringGenerationVisitor(textOutput, consumer))
+                        sourceMapBuilder.build().also {
+                            sourceMapBuilder.addLink()
+                        }
+                    }
+                    replaceIfChanged(outputFile, tempOutputFile)
+                    content
+                }
+                finally {
+                    // the temporary file is left only if writing or replacing the output has failed
+                    tempOutputFile.delete()
                 }
 
-                if (file.sourceMapResource != null) {
+                if (file.sourceMapResource != null && !(sourceMapFile.exists() && sourceMapFile.readText() == sourceMapContent)) {
                     sourceMapFile.writeText(sourceMapContent)
                 }
             }
@@ -142,14 +163,84 @@ class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit
             return DeadCodeEliminationResult(dce.reachableNodes, DeadCodeEliminationStatus.OK)
         }
 
-        private class Reporter(private val fileName: String, private val logConsumer: (DCELogLevel, String) -> Unit) : ErrorReporter {
+        // The outputs which are the same as on the previous run are not rewritten,
+        // so that the tools watching them (e.g. webpack in the watch mode) don't process them again
+        private fun replaceIfChanged(file: File, newContent: File) {
+            if (file.exists() && hasSameContent(file, newContent)) {
+                newContent.delete()
+            }
+            else {
+                Files.move(newContent.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            }
+        }
+
+        private fun hasSameContent(first: File, second: File): Boolean {
+            if (first.length() != second.length()) return false
+
+            return first.inputStream().buffered().use { firstInput ->
+                second.inputStream().buffered().use { secondInput ->
+                    var byte: Int
+                    var same: Boolean
+                    do {
+                        byte = firstInput.read()
+                        same = byte == secondInput.read()
+                    } while (same && byte != -1)
+                    same
+                }
+            }
+        }
+
+        private val PARSING_PARALLELISM = Runtime.getRuntime().availableProcessors()
+
+        private class ParsedFile(
+                val file: InputFile,
+                val syntaxTree: RhinoNode?,
+                val sourceMapParse: SourceMapParseResult?,
+                val messages: List<Pair<DCELogLevel, String>>
+        )
+
+        private fun parseFile(file: InputFile): ParsedFile {
+            val reporter = Reporter(file.resource.name)
+            val code = file.resource.reader().let { InputStreamReader(it, "UTF-8") }.use { it.readText() }
+            val syntaxTree = parseSyntaxTree(code, reporter)
+            val sourceMapParse = syntaxTree?.let {
+                file.sourceMapResource?.let { SourceMapParser.parse(InputStreamReader(it.reader(), "UTF-8").readText()) }
+            }
+            return ParsedFile(file, syntaxTree, sourceMapParse, reporter.messages)
+        }
+
+        // The results are in the order of the input files, as well as the messages, so the output doesn't depend on the scheduling
+        private fun parseInParallel(inputFiles: List<InputFile>): List<ParsedFile> {
+            if (PARSING_PARALLELISM <= 1 || inputFiles.size <= 1) return inputFiles.map(::parseFile)
+
+            val executor = Executors.newFixedThreadPool(minOf(PARSING_PARALLELISM, inputFiles.size))
+            try {
+                val futures = inputFiles.map { file -> executor.submit(Callable { parseFile(file) }) }
+                return futures.map { future ->
+                    try {
+                        future.get()
+                    }
+                    catch (e: ExecutionException) {
+                        throw e.cause ?: e
+                    }
+                }
+            }
+            finally {
+                executor.shutdownNow()
+            }
+        }
+
+        // Collects the messages instead of logging them immediately, since the files are parsed on several threads
+        private class Reporter(private val fileName: String) : ErrorReporter {
+            val messages = mutableListOf<Pair<DCELogLevel, String>>()
+
             override fun warning(message: String, startPosition: CodePosition, endPosition: CodePosition) {
-                logConsumer(DCELogLevel.WARN, "at $fileName (${startPosition.line + 1}, ${startPosition.offset + 1}): $message")
+                messages += DCELogLevel.WARN to "at $fileName (${startPosition.line + 1}, ${startPosition.offset + 1}): $message"
             }
 
             override fun error(message: String, startPosition: CodePosition, endPosition: CodePosition) {
-                logConsumer(DCELogLevel.ERROR, "at $fileName (${startPosition.line + 1}, ${startPosition.offset + 1}): $message")
+                messages += DCELogLevel.ERROR to "at $fileName (${startPosition.line + 1}, ${startPosition.offset + 1}): $message"
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -30,6 +30,18 @@ fun parse(code: String, reporter: ErrorReporter, scope: JsScope, fileName: Strin
     }
 }
 
+/**
+ * Parses top-level code without converting it to JS AST. Unlike [parse], doesn't touch any scope,
+ * so several files can be parsed in parallel and then converted with [toJsStatements] one by one.
+ */
+fun parseSyntaxTree(code: String, reporter: ErrorReporter): Node? =
+        parse(code, CodePosition(0, 0), 0, reporter, false, Parser::parse)
+
+fun Node.toJsStatements(scope: JsScope, fileName: String): List<JsStatement> =
+        toJsAst(scope, fileName) {
+            mapStatements(it)
+        }
+
 fun parseExpressionOrStatement(
         code: String,
         reporter: ErrorReporter, scope: JsScope,
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.test
+
+import org.jetbrains.kotlin.js.dce.DeadCodeElimination
+import org.jetbrains.kotlin.js.dce.DeadCodeEliminationStatus
+import org.jetbrains.kotlin.js.dce.InputFile
+import org.jetbrains.kotlin.js.dce.InputResource
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+class DceOutputTest {
+    private lateinit var workingDir: File
+
+    @Before
+    fun setUp() {
+        workingDir = createTempDir("dceOutput")
+    }
+
+    @After
+    fun tearDown() {
+        workingDir.deleteRecursively()
+    }
+
+    @Test
+    fun unchangedOutputIsNotRewritten() {
+        val input = File(workingDir, "input/main.js").apply { parentFile.mkdirs() }
+        input.writeText("function used() { return 1; }\nfunction unused() { return 2; }\nused();\n")
+        val outputDir = File(workingDir, "output")
+        val output = File(outputDir, "main.js")
+
+        runDce(input, output)
+        val firstContent = output.readText()
+        val modificationTime = output.lastModified() - 10000
+        output.setLastModified(modificationTime)
+
+        runDce(input, output)
+        assertEquals(firstContent, output.readText())
+        assertEquals(modificationTime, output.lastModified())
+        assertEquals(listOf(output.name), outputDir.list().toList())
+    }
+
+    private fun runDce(input: File, output: File) {
+        val inputFile = InputFile(InputResource.file(input.path), null, output.path, "main")
+        val result = DeadCodeElimination.run(setOf(inputFile), emptySet()) { _, _ -> }
+        assertEquals(DeadCodeEliminationStatus.OK, result.status)
+    }
+}